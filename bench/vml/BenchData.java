@@ -0,0 +1,37 @@
+package vml;
+
+/**
+ * Loads the datasets used by the benchmarks. Paths are relative to the project folder,
+ * which is the working directory when running the benchmarks with ant.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class BenchData
+{
+    /**
+     * Reads a dataset and normalizes the attributes to the 0 ... 1 range.
+     *
+     * @param filename Path to the dataset file
+     * @return The dataset
+     * @throws Exception If unable to read the dataset
+     */
+    static Dataset load(String filename) throws Exception
+    {
+        Dataset data = new DataSource().read(filename);
+        data.shuffle();
+        data.normalizeAttributes(0, 1);
+        return data;
+    }
+
+    /**
+     * Returns a disabled logger, so classifiers do not write to the console during benchmarks.
+     *
+     * @return Disabled logger
+     */
+    static Logger silent()
+    {
+        Logger out = Logger.getConsoleLogger();
+        out.disable();
+        return out;
+    }
+}
@@ -0,0 +1,129 @@
+package vml;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the k-Nearest Neighbor, CART, Random Forest and RBF Kernel classifiers.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClassifierBench
+{
+    /**
+     * Trained k-Nearest Neighbor classifier on the MNIST test set, queried with
+     * instances from the same dataset.
+     */
+    @State(Scope.Benchmark)
+    public static class KNNState
+    {
+        KNN knn;
+        Dataset data;
+        int next = 0;
+
+        /**
+         * Reads the dataset and trains the classifier.
+         *
+         * @throws Exception If unable to read the dataset
+         */
+        @Setup
+        public void setup() throws Exception
+        {
+            data = BenchData.load("data_mnist/mnist_test.csv.zip");
+            knn = new KNN(data, null, new KNNSettings());
+            knn.train(BenchData.silent());
+            knn.activation(data);
+        }
+    }
+
+    /**
+     * Dataset for tree and kernel classifiers.
+     */
+    @State(Scope.Benchmark)
+    public static class TreeState
+    {
+        @Param({"data/diabetes.csv", "data/glass.csv"})
+        public String dataset;
+
+        Dataset data;
+        Logger out;
+
+        /**
+         * Reads the dataset.
+         *
+         * @throws Exception If unable to read the dataset
+         */
+        @Setup
+        public void setup() throws Exception
+        {
+            data = BenchData.load(dataset);
+            out = BenchData.silent();
+        }
+    }
+
+    /**
+     * Classifies one instance with k-Nearest Neighbor.
+     *
+     * @param s Benchmark state
+     * @return Predicted class value
+     */
+    @Benchmark
+    public int knn_classify(KNNState s)
+    {
+        int i = s.next;
+        s.next = (s.next + 1) % s.data.size();
+        return s.knn.classify(i);
+    }
+
+    /**
+     * Builds a CART tree.
+     *
+     * @param s Benchmark state
+     * @return The classifier
+     */
+    @Benchmark
+    public Classifier cart_train(TreeState s)
+    {
+        CARTSettings settings = new CARTSettings();
+        settings.max_depth = 8;
+        settings.min_size = 5;
+        CART c = new CART(s.data, null, settings);
+        c.train(s.out);
+        return c;
+    }
+
+    /**
+     * Trains a Random Forest.
+     *
+     * @param s Benchmark state
+     * @return The classifier
+     */
+    @Benchmark
+    public Classifier rf_train(TreeState s)
+    {
+        RFSettings settings = new RFSettings();
+        settings.max_depth = 8;
+        settings.min_size = 5;
+        settings.trees = 15;
+        RandomForest c = new RandomForest(s.data, null, settings);
+        c.train(s.out);
+        return c;
+    }
+
+    /**
+     * Creates an RBF kernel for the first two categories in the dataset.
+     *
+     * @param s Benchmark state
+     * @return The kernel
+     */
+    @Benchmark
+    public RBF rbf_kernel(TreeState s)
+    {
+        return new RBF(0, 1, s.data, 1.0);
+    }
+}
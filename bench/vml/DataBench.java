@@ -0,0 +1,80 @@
+package vml;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for reading datasets and for the Eigenpairs decomposition used by PCA.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataBench
+{
+    /**
+     * Dataset file to read.
+     */
+    @State(Scope.Benchmark)
+    public static class FileState
+    {
+        @Param({"data/iris.csv", "data/diabetes.csv", "data_mnist/mnist_test.csv.zip"})
+        public String filename;
+    }
+
+    /**
+     * M^TM matrix for a dataset, as calculated by PCA.
+     */
+    @State(Scope.Benchmark)
+    public static class EigenState
+    {
+        @Param({"data/glass.csv", "data/diabetes.csv"})
+        public String dataset;
+
+        Tensor2D mTm;
+
+        /**
+         * Reads the dataset and calculates M^TM.
+         *
+         * @throws Exception If unable to read the dataset
+         */
+        @Setup
+        public void setup() throws Exception
+        {
+            Dataset data = new DataSource().read(dataset);
+            data.normalizeAttributes(-1, 1);
+            Tensor2D m = Tensor2D.transpose(data.input_tensor());
+            mTm = Tensor2D.transpose_mul(m, m);
+        }
+    }
+
+    /**
+     * Reads a dataset file.
+     *
+     * @param s Benchmark state
+     * @return The dataset
+     * @throws Exception If unable to read the dataset
+     */
+    @Benchmark
+    public Dataset read(FileState s) throws Exception
+    {
+        return new DataSource().read(s.filename);
+    }
+
+    /**
+     * Decomposes M^TM into Eigenpairs.
+     *
+     * @param s Benchmark state
+     * @return The decomposition
+     */
+    @Benchmark
+    public EigenDecomp eigen_decomp(EigenState s)
+    {
+        EigenDecomp ed = new EigenDecomp(s.mTm);
+        ed.decomp();
+        return ed;
+    }
+}
@@ -0,0 +1,93 @@
+package vml;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the 2D-tensor products. The sizes match the first layer of a neural network
+ * on MNIST (784 inputs), with the number of hidden units and the batch size as parameters.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TensorBench
+{
+    //Number of hidden units (rows in the weights tensor)
+    @Param({"32", "128"})
+    public int units;
+
+    //Number of instances in a batch
+    @Param({"200"})
+    public int batch;
+
+    //Number of inputs
+    private final int inputs = 784;
+
+    private Tensor2D w;
+    private Tensor2D x;
+    private Tensor1D b;
+    private Tensor2D d;
+
+    /**
+     * Creates random tensors for the benchmarks.
+     */
+    @Setup
+    public void setup()
+    {
+        Random rnd = new Random(7);
+        w = Tensor2D.randomNormal(units, inputs, rnd);
+        x = Tensor2D.random(inputs, batch, 1.0, rnd);
+        b = Tensor1D.random(units, 1.0, rnd);
+        d = Tensor2D.random(units, batch, 1.0, rnd);
+    }
+
+    /**
+     * Weights times input (forward pass without bias).
+     *
+     * @return Result 2D-tensor
+     */
+    @Benchmark
+    public Tensor2D mul()
+    {
+        return Tensor2D.mul(w, x);
+    }
+
+    /**
+     * Activation (w*x+b).
+     *
+     * @return Result 2D-tensor
+     */
+    @Benchmark
+    public Tensor2D activation()
+    {
+        return Tensor2D.activation(w, x, b);
+    }
+
+    /**
+     * Transpose of weights times gradients (backward pass into the previous layer).
+     *
+     * @return Result 2D-tensor
+     */
+    @Benchmark
+    public Tensor2D transpose_mul()
+    {
+        return Tensor2D.transpose_mul(w, d);
+    }
+
+    /**
+     * Gradients times transpose of input (weight gradients).
+     *
+     * @return Result 2D-tensor
+     */
+    @Benchmark
+    public Tensor2D mul_transpose()
+    {
+        return Tensor2D.mul_transpose(d, x);
+    }
+}
@@ -0,0 +1,110 @@
+package vml;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for training one epoch of the Neural Network and Linear classifiers
+ * on the MNIST test set.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrainBench
+{
+    /**
+     * Neural Network classifier, created for each combination of parameters.
+     */
+    @State(Scope.Benchmark)
+    public static class NNState
+    {
+        //Size of batches for batch training
+        @Param({"200"})
+        public int batch_size;
+
+        //Hidden layers for the Neural Network
+        @Param({"32", "56,16"})
+        public String layers;
+
+        NN nn;
+
+        /**
+         * Reads the dataset and creates the classifier.
+         *
+         * @throws Exception If unable to read the dataset
+         */
+        @Setup
+        public void setup() throws Exception
+        {
+            Dataset data = BenchData.load("data_mnist/mnist_test.csv.zip");
+
+            NNSettings ns = new NNSettings();
+            ns.batch_size = batch_size;
+            ns.dropout = 0.2;
+            String[] t = layers.split(",");
+            ns.layers = new int[t.length];
+            for (int i = 0; i < t.length; i++)
+            {
+                ns.layers[i] = Integer.parseInt(t[i].trim());
+            }
+            nn = new NN(data, null, ns);
+        }
+    }
+
+    /**
+     * Linear classifier, which does not depend on the hidden layers parameter.
+     */
+    @State(Scope.Benchmark)
+    public static class LinearState
+    {
+        //Size of batches for batch training
+        @Param({"200"})
+        public int batch_size;
+
+        Linear linear;
+
+        /**
+         * Reads the dataset and creates the classifier.
+         *
+         * @throws Exception If unable to read the dataset
+         */
+        @Setup
+        public void setup() throws Exception
+        {
+            Dataset data = BenchData.load("data_mnist/mnist_test.csv.zip");
+
+            LSettings ls = new LSettings();
+            ls.batch_size = batch_size;
+            ls.learningrate = 0.1;
+            linear = new Linear(data, null, ls);
+        }
+    }
+
+    /**
+     * One training epoch for the Neural Network.
+     *
+     * @param s Benchmark state
+     * @return Current loss
+     */
+    @Benchmark
+    public double nn_epoch(NNState s)
+    {
+        return s.nn.iterate();
+    }
+
+    /**
+     * One training epoch for the Linear classifier.
+     *
+     * @param s Benchmark state
+     * @return Current loss
+     */
+    @Benchmark
+    public double linear_epoch(LinearState s)
+    {
+        return s.linear.iterate();
+    }
+}
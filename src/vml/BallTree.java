@@ -0,0 +1,294 @@
+package vml;
+
+import java.util.Arrays;
+
+/**
+ * Ball tree for exact nearest neighbor search. Each node holds the centroid of its instances
+ * and the radius of the ball around the centroid that contains them all. By the triangle
+ * inequality, no instance in a node can be nearer to the query than the distance to the
+ * centroid minus the radius, so nodes where this bound is larger than the distance to the
+ * K:th nearest neighbor found so far are skipped. Nodes are split along the direction
+ * between two far apart instances, which follows the structure of the data, so ball trees
+ * keep pruning on datasets with many attributes where KD-trees do not.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class BallTree extends NeighborIndex
+{
+    //Maximum number of instances in a leaf
+    private static final int LEAF_SIZE = 32;
+    //Relative margin for the pruning bound, so rounding errors never prune a neighbor
+    private static final double MARGIN = 1e-9;
+
+    //Attributes, instance by instance in tree order
+    private final double[] pts;
+    //Training instance index for each position in tree order
+    private final int[] idx;
+    //Metric distance from each instance to the centroid of its leaf, in tree order
+    private final double[] leaf_dist;
+
+    //Nodes: centroids, radius, children (-1 for leaves) and range of instances
+    private double[] centers;
+    private double[] radius;
+    private int[] left;
+    private int[] right;
+    private int[] start;
+    private int[] end;
+    private int nodes = 0;
+
+    //Projections used when splitting a node
+    private double[] proj;
+
+    /**
+     * Builds a ball tree for a training dataset.
+     *
+     * @param data Training dataset
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2)
+     */
+    BallTree(Dataset data, int measure)
+    {
+        super(measure, data.noInputs());
+
+        int n = data.size();
+        double[] src = flatten(data);
+        idx = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            idx[i] = i;
+        }
+
+        int cap = 2 * (n / LEAF_SIZE + 1);
+        centers = new double[cap * dim];
+        radius = new double[cap];
+        left = new int[cap];
+        right = new int[cap];
+        start = new int[cap];
+        end = new int[cap];
+        proj = new double[n];
+
+        leaf_dist = new double[n];
+        build(src, 0, n);
+        proj = null;
+
+        //Store attributes in tree order
+        pts = new double[n * dim];
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(src, idx[i] * dim, pts, i * dim, dim);
+        }
+    }
+
+    /**
+     * Calculates the metric distance (L1, or L2 without squaring) between two attribute ranges.
+     */
+    private double metric(double[] a, int ao, double[] b, int bo)
+    {
+        double d = dist(a, ao, b, bo);
+        return measure == KNNSettings.L2 ? Math.sqrt(d) : d;
+    }
+
+    /**
+     * Builds the subtree for a range of instances.
+     *
+     * @param src Attributes in dataset order
+     * @param lo First position in the range
+     * @param hi End position (exclusive)
+     * @return Node index
+     */
+    private int build(double[] src, int lo, int hi)
+    {
+        //Distances to the centroid are overwritten by the children until the leaves are reached
+        int node = new_node(lo, hi);
+        int c = node * dim;
+        //An empty training dataset gives a single empty leaf
+        if (hi <= lo) return node;
+
+        //Centroid
+        for (int i = lo; i < hi; i++)
+        {
+            int p = idx[i] * dim;
+            for (int a = 0; a < dim; a++)
+            {
+                centers[c + a] += src[p + a];
+            }
+        }
+        for (int a = 0; a < dim; a++)
+        {
+            centers[c + a] /= (hi - lo);
+        }
+
+        //Radius, and the instance farthest from the centroid
+        int far1 = idx[lo];
+        double r = 0;
+        for (int i = lo; i < hi; i++)
+        {
+            double d = metric(centers, c, src, idx[i] * dim);
+            leaf_dist[i] = d;
+            if (d > r)
+            {
+                r = d;
+                far1 = idx[i];
+            }
+        }
+        radius[node] = r;
+        if (hi - lo <= LEAF_SIZE || r == 0) return node;
+
+        //The instance farthest from the first one
+        int far2 = far1;
+        double best = -1;
+        for (int i = lo; i < hi; i++)
+        {
+            double d = dist(src, far1 * dim, src, idx[i] * dim);
+            if (d > best)
+            {
+                best = d;
+                far2 = idx[i];
+            }
+        }
+
+        //Project instances on the direction between the two instances and split at the median
+        for (int i = lo; i < hi; i++)
+        {
+            int p = idx[i] * dim;
+            double s = 0;
+            for (int a = 0; a < dim; a++)
+            {
+                s += (src[p + a] - src[far1 * dim + a]) * (src[far2 * dim + a] - src[far1 * dim + a]);
+            }
+            proj[idx[i]] = s;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid);
+
+        int l = build(src, lo, mid);
+        int rn = build(src, mid, hi);
+        left[node] = l;
+        right[node] = rn;
+
+        return node;
+    }
+
+    /**
+     * Creates a new leaf node.
+     *
+     * @param lo First position in the range
+     * @param hi End position (exclusive)
+     * @return Node index
+     */
+    private int new_node(int lo, int hi)
+    {
+        if (nodes == radius.length)
+        {
+            int cap = nodes * 2;
+            centers = Arrays.copyOf(centers, cap * dim);
+            radius = Arrays.copyOf(radius, cap);
+            left = Arrays.copyOf(left, cap);
+            right = Arrays.copyOf(right, cap);
+            start = Arrays.copyOf(start, cap);
+            end = Arrays.copyOf(end, cap);
+        }
+        left[nodes] = -1;
+        right[nodes] = -1;
+        start[nodes] = lo;
+        end[nodes] = hi;
+        return nodes++;
+    }
+
+    /**
+     * Reorders the range so the instance at position k has the projection it would have if
+     * the range was sorted by projection (quickselect).
+     *
+     * @param lo First position
+     * @param hi Last position (inclusive)
+     * @param k Position to select
+     */
+    private void select(int lo, int hi, int k)
+    {
+        while (hi > lo)
+        {
+            double pivot = proj[idx[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+            {
+                while (proj[idx[i]] < pivot) i++;
+                while (proj[idx[j]] > pivot) j--;
+                if (i <= j)
+                {
+                    int t = idx[i];
+                    idx[i] = idx[j];
+                    idx[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    @Override
+    void search(double[] q, NeighborHeap heap)
+    {
+        heap.clear();
+        search(0, metric(q, 0, centers, 0), q, heap);
+    }
+
+    /**
+     * Searches a subtree.
+     *
+     * @param node Node index
+     * @param dc Metric distance from the query to the centroid of the node
+     * @param q Query attributes
+     * @param heap Heap that holds the neighbors
+     */
+    private void search(int node, double dc, double[] q, NeighborHeap heap)
+    {
+        if (pruned(dc - radius[node], heap)) return;
+
+        if (left[node] == -1)
+        {
+            //Leaf: check all instances, skipping those that the distance to the
+            //centroid shows are too far away
+            for (int i = start[node]; i < end[node]; i++)
+            {
+                if (pruned(Math.abs(dc - leaf_dist[i]), heap)) continue;
+                heap.offer(dist(q, 0, pts, i * dim, heap.worst()), idx[i]);
+            }
+            return;
+        }
+
+        //Search the child with the nearest centroid first
+        int l = left[node];
+        int r = right[node];
+        double dl = metric(q, 0, centers, l * dim);
+        double dr = metric(q, 0, centers, r * dim);
+        if (dl <= dr)
+        {
+            search(l, dl, q, heap);
+            search(r, dr, q, heap);
+        }
+        else
+        {
+            search(r, dr, q, heap);
+            search(l, dl, q, heap);
+        }
+    }
+
+    /**
+     * Checks if a node can be skipped, i.e. if the lower bound for the metric distance to its
+     * instances is larger than the distance to the K:th nearest neighbor found so far.
+     *
+     * @param lb Lower bound for the metric distance
+     * @param heap Heap that holds the neighbors
+     * @return True if the node can be skipped
+     */
+    private boolean pruned(double lb, NeighborHeap heap)
+    {
+        double w = heap.worst();
+        if (w == Double.POSITIVE_INFINITY || lb <= 0) return false;
+        if (measure == KNNSettings.L2) w = Math.sqrt(w);
+        return lb > w * (1 + MARGIN) + MARGIN;
+    }
+}
@@ -2,6 +2,7 @@
 package vml;
 
 import java.util.*;
+import java.util.function.IntConsumer;
 
 /**
  * CART (Classification And Regression Tree) tree classifier.
@@ -16,18 +17,67 @@ public class CART extends Classifier
     private CARTSettings settings;
     //Possible class values
     private HashSet<Integer> classes;
-    //Root node of the CART tree
-    private Node root;
+    //Possible class values, in the iteration order of the set
+    private int[] class_order;
+    //Trained tree, with one value per node where the root is node 0
+    //Attribute to split at (-1 for leaf nodes)
+    private int[] t_attr;
+    //Value to split at
+    private double[] t_val;
+    //Left and right branch
+    private int[] t_left;
+    private int[] t_right;
+    //Predicted label
+    private int[] t_label;
+    //Class probabilities, node by node (only set for leaf nodes)
+    private double[] t_prob;
     //Randomizer used for forest classifier
     private Random rnd;
+    //Instances in the training data used for the tree (null for all instances)
+    private int[] sample;
+    //Training instances used while building the tree, in dataset (or sample) order
+    private Instance[] train;
+    //Training instances, where each node has a range that is partitioned in place when the node is split
+    private int[] idx;
+    //Training instances sorted by each attribute, partitioned in the same way (for exact split search)
+    private int[][] order;
+    //Instances in the training dataset sorted by each attribute, shared by the trees in a forest (or null)
+    private int[][] data_order;
+    //Buffers used when partitioning ranges
+    private int[] buf;
+    private boolean[] is_left;
+    //Labels of the training instances
+    private int[] train_labels;
+    //Max number of bins per attribute (codes are stored in one byte)
+    private static final int MAX_BINS = 256;
+    //Min number of instances in a node for searching attributes in parallel
+    private static final int PARALLEL_SIZE = 2048;
+    //Min number of instances in a node for building its subtrees in parallel
+    private static final int SUBTREE_SIZE = 256;
+    //Buffer for each thread when partitioning the sorted attributes of large nodes in
+    //parallel. A partition does not start other tasks, so a thread only uses its buffer
+    //for one partition at a time
+    private static final ThreadLocal<int[]> part_buf = ThreadLocal.withInitial(() -> new int[PARALLEL_SIZE]);
+    //Number of bins per attribute, for binned split search
+    private int nbins;
+    //Lower edge of each bin, for each attribute
+    private double[][] edges;
+    //Bin of each training instance, for each attribute
+    private byte[][] codes;
+    //Bins for the training dataset, shared by the trees in a forest (or null)
+    private Bins data_bins;
+    //Class histograms that are no longer used, so they can be re-used by other nodes
+    private ArrayDeque<int[]> hist_pool;
     
     /**
-     * Internal class for tree nodes
+     * Internal class for tree nodes, used while building the tree. Nodes of a trained tree
+     * can also be created from the tree arrays, as done by root() and classify(Node, Instance).
      */
     protected class Node
     {
-        // Subset for this node
-        protected Dataset data;
+        // Range of training instances for this node
+        protected int start;
+        protected int end;
         // Index of attribute to split at
         protected int a_index;
         // Value to split at
@@ -40,21 +90,37 @@ public class CART extends Classifier
         protected int label = -1;
         // Class distribution (for leaf nodes)
         protected Tensor1D labels;
+        // Class counts per attribute and bin for the instances (only used while building the tree with binned split search)
+        protected int[] hist;
+        // Position of the node in the tree arrays (-1 if not created from the tree arrays)
+        protected int id = -1;
  
         /**
          * Creates a new node.
          * 
-         * @param data Subset for this node
+         * @param start First position in the range of training instances
+         * @param end End position (exclusive) in the range of training instances
          * @param a_index Attribute to split it
          * @param val Value to split at
          */
-        public Node(Dataset data, int a_index, double val)
+        public Node(int start, int end, int a_index, double val)
         {
-            this.data = data;
+            this.start = start;
+            this.end = end;
             this.a_index = a_index;
             this.val = val;
         }
         
+        /**
+         * Returns the number of training instances in this node.
+         * 
+         * @return Number of instances
+         */
+        public int size()
+        {
+            return end - start;
+        }
+        
         /**
          * Checks of this node is a terminal (leaf) node.
          * 
@@ -71,11 +137,14 @@ public class CART extends Classifier
         public void calc_label()
         {
             labels = Tensor1D.zeros(data.noCategories());
-            for (Instance i : data.data)
+            for (int i = start; i < end; i++)
             {
-                labels.v[i.label]++;
+                labels.v[train_labels[idx[i]]]++;
             }
             this.label = labels.argmax();
+            //Bins are not needed for terminal nodes
+            release_histogram(hist);
+            hist = null;
         }
         
         /**
@@ -103,10 +172,25 @@ public class CART extends Classifier
      * @param settings Configuration settings for this classifier
      */
     public CART(Dataset data, Dataset test, CARTSettings settings)
+    {
+        this(data, test, settings, null);
+    }
+    
+    /**
+     * Creates a classifier that is trained on a sample of the training dataset. Used by
+     * the random forest classifier, so the trees do not need copies of the dataset.
+     * 
+     * @param data Training dataset
+     * @param test Test dataset
+     * @param settings Configuration settings for this classifier
+     * @param sample Instances in the training dataset to train on (can contain duplicates), or null for all instances
+     */
+    public CART(Dataset data, Dataset test, CARTSettings settings, int[] sample)
     {
         //Set dataset
         this.data = data;
         this.test = test;
+        this.sample = sample;
         
         //Size of dataset
         noCategories = data.noCategories();
@@ -116,13 +200,19 @@ public class CART extends Classifier
         
         //Find all possible class values in the dataset
         classes = new HashSet<>();
-        for (Instance inst : data.data)
+        for (Instance inst : training_instances())
         {
             if (!classes.contains(inst.label))
             {
                 classes.add(inst.label);
             }
         }
+        class_order = new int[classes.size()];
+        int c = 0;
+        for (Integer class_val : classes)
+        {
+            class_order[c++] = class_val;
+        }
     }
     
     /**
@@ -151,7 +241,7 @@ public class CART extends Classifier
     @Override
     public double iterate()
     {
-        build_tree(settings.max_depth, settings.min_size, data);
+        build_tree(settings.max_depth, settings.min_size);
         training_done = true;
         return 0;
     }
@@ -177,155 +267,598 @@ public class CART extends Classifier
     @Override
     public int classify(int i)
     {
-        if (root == null) return 0;
+        if (t_attr == null) return 0;
         
-        Node t = classify(root, tdata.get(i));
-        return t.label;
+        return t_label[leaf(tdata.get(i))];
     }
     
+    /**
+     * Returns the class probabilities for an instance in the dataset.
+     * 
+     * @param i Index of the instance
+     * @return Class probabilities 1D-tensor
+     */
     public Tensor1D classifyProbability(int i)
     {
-        Node t = classify(root, tdata.get(i));
-        return t.getClassProbabilities();
+        int node = leaf(tdata.get(i));
+        Tensor1D p = Tensor1D.zeros(noCategories);
+        System.arraycopy(t_prob, node * noCategories, p.v, 0, noCategories);
+        return p;
+    }
+    
+    /**
+     * Returns the root node of the trained tree, created from the tree arrays.
+     * 
+     * @return Root node, or null if the tree is not trained
+     * @deprecated Trained trees are stored in arrays, use classify(int) or classifyProbability(int) instead
+     */
+    @Deprecated
+    public Node root()
+    {
+        return t_attr == null ? null : node(0);
     }
     
     /**
-     * Recursive classification.
+     * Recursive classification. For nodes created from the tree arrays the tree arrays are
+     * walked, and for nodes returned by get_split(Dataset) the branches are followed.
      * 
      * @param node Current node
      * @param inst Instance to classify
      * @return Predicted terminal node
+     * @deprecated Trained trees are stored in arrays, use classify(int) or classifyProbability(int) instead
      */
+    @Deprecated
     public Node classify(Node node, Instance inst)
     {
-        int a_index = node.a_index;
-        double val = node.val;
+        if (node.id >= 0)
+        {
+            return node(leaf(inst, node.id));
+        }
         
-        //Check if left or right branch
-        if (inst.x.get(a_index) < val)
+        //Follow the branches until a terminal node is reached
+        while (!node.is_terminal())
         {
-            if (!node.left.is_terminal())
-            {
-                //Not terminal node - keep iterating
-                return classify(node.left, inst);
-            }
-            else
-            {
-                //Terminal node - return label
-                return node.left;
-            }
+            node = inst.x.v[node.a_index] < node.val ? node.left : node.right;
         }
-        else
+        return node;
+    }
+    
+    /**
+     * Creates a node from a position in the tree arrays. The node has no training instances
+     * and no branches, and the class distribution is only set for leaf nodes.
+     * 
+     * @param k Position in the tree arrays
+     * @return The node
+     */
+    private Node node(int k)
+    {
+        Node n = new Node(0, 0, t_attr[k], t_val[k]);
+        n.id = k;
+        n.label = t_label[k];
+        if (t_attr[k] == -1)
         {
-            if (!node.right.is_terminal())
-            {
-                //Not terminal node - keep iterating
-                return classify(node.right, inst);
-            }
-            else
-            {
-                //Terminal node - return label
-                return node.right;
-            }
+            n.labels = Tensor1D.zeros(noCategories);
+            System.arraycopy(t_prob, k * noCategories, n.labels.v, 0, noCategories);
+        }
+        return n;
+    }
+    
+    /**
+     * Returns the number of nodes in the trained tree.
+     * 
+     * @return Number of nodes (0 if the tree is not trained)
+     */
+    int nodes()
+    {
+        return t_attr == null ? 0 : t_attr.length;
+    }
+    
+    /**
+     * Copies the trained tree into arrays that can hold several trees, such as all trees
+     * in a forest. Child indexes are shifted to positions in the arrays.
+     * 
+     * @param attr Attribute to split at for each node (-1 for leaf nodes)
+     * @param val Value to split at for each node
+     * @param left Left branch for each node
+     * @param right Right branch for each node
+     * @param label Predicted label for each node
+     * @param o Array index for the root node of this tree
+     */
+    void copy_tree(int[] attr, double[] val, int[] left, int[] right, int[] label, int o)
+    {
+        int n = nodes();
+        System.arraycopy(t_attr, 0, attr, o, n);
+        System.arraycopy(t_val, 0, val, o, n);
+        System.arraycopy(t_label, 0, label, o, n);
+        for (int i = 0; i < n; i++)
+        {
+            left[o + i] = t_left[i] + o;
+            right[o + i] = t_right[i] + o;
         }
     }
     
+    /**
+     * Finds the leaf node for an instance.
+     * 
+     * @param inst Instance to classify
+     * @return Leaf node
+     */
+    private int leaf(Instance inst)
+    {
+        return leaf(inst, 0);
+    }
+    
+    /**
+     * Finds the leaf node for an instance in a subtree.
+     * 
+     * @param inst Instance to classify
+     * @param node Root node of the subtree
+     * @return Leaf node
+     */
+    private int leaf(Instance inst, int node)
+    {
+        //Walk down the tree until a leaf is reached
+        while (t_attr[node] != -1)
+        {
+            node = inst.x.v[t_attr[node]] < t_val[node] ? t_left[node] : t_right[node];
+        }
+        return node;
+    }
+    
+    /**
+     * Returns the instances in the training dataset used for the tree.
+     * 
+     * @return Training instances, in dataset (or sample) order
+     */
+    private Instance[] training_instances()
+    {
+        if (sample == null)
+        {
+            return data.data.toArray(new Instance[0]);
+        }
+        Instance[] inst = new Instance[sample.length];
+        for (int i = 0; i < sample.length; i++)
+        {
+            inst[i] = data.get(sample[i]);
+        }
+        return inst;
+    }
+    
     /**
      * Recursively builds the CART tree.
      * 
      * @param max_depth Max depth of the tree
      * @param min_size Min size of dataset for a split
-     * @param data The dataset
      */
-    private void build_tree(int max_depth, int min_size, Dataset data)
+    private void build_tree(int max_depth, int min_size)
     {
-        root = get_split(data);
+        //All training instances, in dataset order
+        prepare(training_instances());
+        int n = train.length;
+        
+        Node root;
+        if (settings.bins > 0)
+        {
+            //Binned split search
+            create_bins();
+            order = null;
+            root = get_binned_split(new Node(0, n, -1, 0), histogram(0, n));
+        }
+        else
+        {
+            edges = null;
+            codes = null;
+            order = presort();
+            root = get_exact_split(new Node(0, n, -1, 0));
+        }
         split(root, max_depth, min_size, 1);
+        compact(root);
+        
+        //Index arrays are only used while building the tree. Trees are trained once
+        //on a sample, so the sample is not needed either
+        release();
+        data_order = null;
+        data_bins = null;
+        sample = null;
     }
     
     /**
-     * Tests to split a dataset at the specified attribute and value.
+     * Sets up the index arrays used while building the tree.
      * 
-     * @param a_index Attribute index to split at
-     * @param val Value to split at
-     * @param data The dataset to split
-     * @return Left and right branch after the split
+     * @param inst Training instances, in dataset (or sample) order
      */
-    private Node[] test_split(int a_index, double val, Dataset data)
+    private void prepare(Instance[] inst)
     {
-        Dataset left = data.clone_empty();
-        Dataset right = data.clone_empty();
+        train = inst;
+        int n = train.length;
+        idx = new int[n];
+        train_labels = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            idx[i] = i;
+            train_labels[i] = train[i].label;
+        }
+        buf = new int[n];
+        is_left = new boolean[n];
+        hist_pool = new ArrayDeque<>();
+    }
+    
+    /**
+     * Releases the index arrays used while building the tree.
+     */
+    private void release()
+    {
+        train = null;
+        idx = null;
+        order = null;
+        buf = null;
+        is_left = null;
+        train_labels = null;
+        edges = null;
+        codes = null;
+        hist_pool = null;
+    }
+    
+    /**
+     * Stores the tree in arrays with one value per node, so no nodes or training
+     * instances are kept after training.
+     * 
+     * @param root Root node
+     */
+    private void compact(Node root)
+    {
+        int n = count(root);
+        t_attr = new int[n];
+        t_val = new double[n];
+        t_left = new int[n];
+        t_right = new int[n];
+        t_label = new int[n];
+        t_prob = new double[n * noCategories];
+        store(root, 0);
+    }
+    
+    /**
+     * Counts the nodes in a subtree.
+     * 
+     * @param node Root of the subtree
+     * @return Number of nodes
+     */
+    private int count(Node node)
+    {
+        if (node.is_terminal()) return 1;
+        return 1 + count(node.left) + count(node.right);
+    }
+    
+    /**
+     * Stores a subtree in the tree arrays, in depth first order.
+     * 
+     * @param node Root of the subtree
+     * @param k Array index for the node
+     * @return Array index after the last node in the subtree
+     */
+    private int store(Node node, int k)
+    {
+        t_label[k] = node.label;
+        if (node.is_terminal())
+        {
+            t_attr[k] = -1;
+            //Class probabilities
+            double sum = node.labels.sum();
+            for (int c = 0; c < noCategories; c++)
+            {
+                t_prob[k * noCategories + c] = node.labels.v[c] / sum;
+            }
+            return k + 1;
+        }
         
-        //Iterate over the whole dataset and put instances in left or right branch
-        for (Instance i : data.data)
+        t_attr[k] = node.a_index;
+        t_val[k] = node.val;
+        t_left[k] = k + 1;
+        t_right[k] = store(node.left, k + 1);
+        return store(node.right, t_right[k]);
+    }
+    
+    /**
+     * Attribute bins for a set of instances, as created by create_bins.
+     */
+    static class Bins
+    {
+        //Number of bins per attribute
+        final int nbins;
+        //Lower edge of each bin, for each attribute
+        final double[][] edges;
+        //Bin of each instance, for each attribute
+        final byte[][] codes;
+        
+        /**
+         * Creates a new set of bins.
+         * 
+         * @param nbins Number of bins per attribute
+         * @param edges Lower edge of each bin, for each attribute
+         * @param codes Bin of each instance, for each attribute
+         */
+        Bins(int nbins, double[][] edges, byte[][] codes)
+        {
+            this.nbins = nbins;
+            this.edges = edges;
+            this.codes = codes;
+        }
+    }
+    
+    /**
+     * Sets the bins for the instances in the training dataset, as returned by create_bins.
+     * Used by the random forest classifier, so the dataset is binned once instead of once
+     * for each tree.
+     * 
+     * @param data_bins Bins for the training dataset (not modified)
+     */
+    void set_data_bins(Bins data_bins)
+    {
+        this.data_bins = data_bins;
+    }
+    
+    /**
+     * Quantizes each attribute of the training data into bins. If the training dataset
+     * has been binned already, the bins of the dataset are used and the bin of each
+     * training instance is found from the dataset instance.
+     */
+    private void create_bins()
+    {
+        if (data_bins == null)
         {
-            if (i.x.get(a_index) < val) left.add(i);
-            else right.add(i);
+            Bins b = create_bins(train, data.noInputs(), settings.bins);
+            nbins = b.nbins;
+            edges = b.edges;
+            codes = b.codes;
+            return;
         }
         
-        //Result branches
-        Node[] groups = new Node[2];
-        groups[0] = new Node(left, a_index, val);
-        groups[1] = new Node(right, a_index, val);
+        int n = train.length;
+        nbins = data_bins.nbins;
+        edges = data_bins.edges;
+        codes = new byte[data.noInputs()][n];
+        TensorExec.for_range(codes.length, (long)codes.length * n, a -> 
+        {
+            byte[] src = data_bins.codes[a];
+            for (int i = 0; i < n; i++)
+            {
+                codes[a][i] = src[sample != null ? sample[i] : i];
+            }
+        });
+    }
+    
+    /**
+     * Quantizes each attribute of a set of instances into bins. Bins have roughly the same
+     * number of instances, and the lower edge of each bin is an attribute value. If an
+     * attribute has no more distinct values than bins, each value gets its own bin.
+     * 
+     * @param inst The instances
+     * @param noInputs Number of attributes
+     * @param max_bins Max number of bins per attribute
+     * @return Bins for the instances
+     */
+    static Bins create_bins(Instance[] inst, int noInputs, int max_bins)
+    {
+        int n = inst.length;
+        int nbins = Math.min(max_bins, MAX_BINS);
+        double[][] edges = new double[noInputs][];
+        byte[][] codes = new byte[noInputs][n];
         
-        return groups;
+        //Attributes are quantized in parallel
+        TensorExec.for_range(noInputs, (long)noInputs * n, a -> 
+        {
+            double[] v = new double[n];
+            double[] e = new double[Math.max(nbins, n)];
+            for (int i = 0; i < n; i++)
+            {
+                v[i] = inst[i].x.v[a];
+            }
+            double[] sorted = v.clone();
+            Arrays.sort(sorted);
+            
+            //Distinct values
+            int ne = 0;
+            for (int i = 0; i < n; i++)
+            {
+                if (ne == 0 || sorted[i] > e[ne - 1]) e[ne++] = sorted[i];
+            }
+            //Too many values, so use values at evenly spaced quantiles
+            if (ne > nbins)
+            {
+                ne = 0;
+                for (int b = 0; b < nbins; b++)
+                {
+                    double val = sorted[(int)((long)b * n / nbins)];
+                    if (ne == 0 || val > e[ne - 1]) e[ne++] = val;
+                }
+            }
+            edges[a] = Arrays.copyOf(e, ne);
+            
+            //Bin of each instance, i.e. the last bin with a lower edge not larger than the value
+            for (int i = 0; i < n; i++)
+            {
+                int lo = 0;
+                int hi = ne - 1;
+                while (lo < hi)
+                {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (edges[a][mid] <= v[i]) lo = mid;
+                    else hi = mid - 1;
+                }
+                codes[a][i] = (byte)lo;
+            }
+        });
+        return new Bins(nbins, edges, codes);
     }
     
     /**
-     * Counts the number of instances of the specified class label.
+     * Counts the instances of each class in each bin of each attribute. Each bin has
+     * one count per class followed by the total count, so empty bins are quickly skipped.
      * 
-     * @param data The dataset
-     * @param class_val The class label
-     * @return Number of instances of the class
+     * @param start First position in the range of training instances to count
+     * @param end End position (exclusive)
+     * @return Class counts, ordered by attribute, bin and class
      */
-    private double count(Dataset data, Integer class_val)
+    private int[] histogram(int start, int end)
     {
-        double cnt = 0;
-        for (Instance i : data.data)
+        int stride = noCategories + 1;
+        int[] hist = take_histogram(codes.length * nbins * stride);
+        TensorExec.for_range(codes.length, (long)codes.length * (end - start), a -> 
         {
-            if (i.label == class_val)
+            byte[] code = codes[a];
+            int base = a * nbins;
+            for (int i = start; i < end; i++)
             {
-                cnt++;
+                int r = idx[i];
+                int o = (base + (code[r] & 0xFF)) * stride;
+                hist[o + train_labels[r]]++;
+                hist[o + noCategories]++;
             }
+        });
+        return hist;
+    }
+    
+    /**
+     * Returns a cleared histogram, re-used from a node that no longer needs it if possible.
+     * 
+     * @param len Length of the histogram
+     * @return Histogram with all counts set to 0
+     */
+    private int[] take_histogram(int len)
+    {
+        int[] hist;
+        synchronized (hist_pool)
+        {
+            hist = hist_pool.poll();
         }
-        return cnt;
+        if (hist == null) return new int[len];
+        
+        Arrays.fill(hist, 0);
+        return hist;
     }
     
     /**
-     * Calculates the Gini index for two nodes.
+     * Returns a histogram that is no longer used to the pool, so it can be re-used by
+     * another node. Histograms are only used by one node at a time, so at most one
+     * histogram per depth and subtree built in parallel is kept.
      * 
-     * @param groups Left and right branch nodes
-     * @param classes Possible class label values
-     * @return Gini index value
+     * @param hist The histogram, or null
      */
-    private double gini_index(Node[] groups, HashSet<Integer> classes)
+    private void release_histogram(int[] hist)
     {
-        //Total number of instances
-        double n_instances = groups[0].data.size() + groups[1].data.size();
-        //Gini index
-        double gini = 0.0;
+        if (hist == null) return;
+        synchronized (hist_pool)
+        {
+            hist_pool.push(hist);
+        }
+    }
+    
+    /**
+     * Calculates the class histograms for the children of a node. Only the child with
+     * fewer instances is counted, and the histogram of the other child is the histogram
+     * of the node minus the counted one.
+     * 
+     * @param node The node
+     * @param hist Class histogram for the node (is reused for one of the children)
+     */
+    private void child_histograms(Node node, int[] hist)
+    {
+        Node small = node.left.size() <= node.right.size() ? node.left : node.right;
+        Node large = small == node.left ? node.right : node.left;
         
-        //Iterate over both groups
-        for (Node n : groups)
+        small.hist = histogram(small.start, small.end);
+        for (int i = 0; i < hist.length; i++)
         {
-            double size = n.data.size();
-            double score = 0.0;
-            
-            //Calculate score
-            if (size > 0)
+            hist[i] -= small.hist[i];
+        }
+        large.hist = hist;
+    }
+    
+    /**
+     * Splits the range of training instances of a node at the specified attribute and value.
+     * The range is partitioned in place so instances in the left branch come first, and
+     * instances keep their relative order in both branches.
+     * 
+     * @param node Node to split
+     * @param a_index Attribute index to split at
+     * @param val Value to split at
+     * @return Node with the range splitted in a left and a right branch
+     */
+    private Node split_range(Node node, int a_index, double val)
+    {
+        int mid = node.start;
+        for (int i = node.start; i < node.end; i++)
+        {
+            int r = idx[i];
+            is_left[r] = train[r].x.v[a_index] < val;
+            if (is_left[r]) mid++;
+        }
+        
+        partition(idx, node.start, node.end, buf, node.start);
+        if (order != null)
+        {
+            int n = node.size();
+            if (n >= PARALLEL_SIZE)
+            {
+                //Attributes in parallel, with one buffer for each thread
+                TensorExec.for_range(order.length, (long)order.length * n, a -> {
+                    partition(order[a], node.start, node.end, part_buffer(n), 0);
+                });
+            }
+            else
             {
-                for (Integer class_val : classes)
+                for (int[] ord : order)
                 {
-                    double p = count(n.data, class_val) / size;
-                    score += p * p;
+                    partition(ord, node.start, node.end, buf, node.start);
                 }
-                
-                //Update gini index
-                gini += (1.0 - score) * (size / n_instances);
             }
         }
         
-        return gini;
+        //Result branches
+        Node n = new Node(node.start, node.end, a_index, val);
+        n.left = new Node(node.start, mid, a_index, val);
+        n.right = new Node(mid, node.end, a_index, val);
+        
+        return n;
+    }
+    
+    /**
+     * Returns the partition buffer for the current thread, grown if needed.
+     * 
+     * @param n Min length of the buffer
+     * @return Buffer for the current thread
+     */
+    private static int[] part_buffer(int n)
+    {
+        int[] b = part_buf.get();
+        if (b.length < n)
+        {
+            b = new int[n];
+            part_buf.set(b);
+        }
+        return b;
+    }
+    
+    /**
+     * Partitions a range of training instances in place, so instances in the left branch come
+     * first. Instances keep their relative order.
+     * 
+     * @param arr Array of training instances
+     * @param start First position in the range
+     * @param end End position (exclusive)
+     * @param tmp Buffer for instances in the right branch
+     * @param o First position to use in the buffer
+     */
+    private void partition(int[] arr, int start, int end, int[] tmp, int o)
+    {
+        int l = start;
+        int r = o;
+        for (int i = start; i < end; i++)
+        {
+            if (is_left[arr[i]]) arr[l++] = arr[i];
+            else tmp[r++] = arr[i];
+        }
+        System.arraycopy(tmp, o, arr, l, r - o);
     }
     
     /**
@@ -376,22 +909,163 @@ public class CART extends Classifier
         return inc;
     }
     
+    
     /**
-     * Search for and splits the dataset at the best attribute-value combination.
+     * Sets the instances in the training dataset sorted by each attribute, as returned by
+     * sort_instances. Used by the random forest classifier, so the dataset is sorted once
+     * instead of once for each tree.
      * 
-     * @param data Dataset to split
-     * @return Node the dataset splitted in a left and a right branch
+     * @param data_order Sorted instances for each attribute (not modified)
      */
-    public Node get_split(Dataset data)
+    void set_data_order(int[][] data_order)
+    {
+        this.data_order = data_order;
+    }
+    
+    /**
+     * Sorts the training instances by each attribute. If the training dataset has been
+     * sorted already, the order for the training instances is found from the dataset order
+     * instead, by expanding each dataset instance into its positions in the sample.
+     * 
+     * @return Sorted training instances for each attribute
+     */
+    private int[][] presort()
+    {
+        if (data_order == null)
+        {
+            return sort_instances(train, data.noInputs());
+        }
+        
+        //Positions in the sample for each dataset instance
+        int n = train.length;
+        int m = data.size();
+        int[] first = new int[m + 1];
+        for (int i = 0; i < n; i++)
+        {
+            first[(sample != null ? sample[i] : i) + 1]++;
+        }
+        for (int d = 0; d < m; d++)
+        {
+            first[d + 1] += first[d];
+        }
+        int[] pos = new int[n];
+        int[] next = Arrays.copyOf(first, m);
+        for (int i = 0; i < n; i++)
+        {
+            pos[next[sample != null ? sample[i] : i]++] = i;
+        }
+        
+        //Expand the sorted dataset instances
+        int[][] order = new int[data.noInputs()][n];
+        TensorExec.for_range(order.length, (long)order.length * (n + m), a -> 
+        {
+            int[] ord = order[a];
+            int k = 0;
+            for (int d : data_order[a])
+            {
+                for (int j = first[d]; j < first[d + 1]; j++)
+                {
+                    ord[k++] = pos[j];
+                }
+            }
+        });
+        return order;
+    }
+    
+    /**
+     * Sorts instances by each attribute. Instances with equal values keep their order.
+     * 
+     * @param inst The instances
+     * @param noInputs Number of attributes
+     * @return Sorted instance indexes for each attribute
+     */
+    static int[][] sort_instances(Instance[] inst, int noInputs)
+    {
+        int n = inst.length;
+        int[][] order = new int[noInputs][n];
+        //Attributes are sorted in parallel
+        TensorExec.for_range(noInputs, (long)noInputs * n, a -> 
+        {
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++)
+            {
+                v[i] = inst[i].x.v[a];
+                order[a][i] = i;
+            }
+            IndexSort.sort(order[a], v, new int[n]);
+        });
+        return order;
+    }
+    
+    /**
+     * Calculates the Gini index for a split from the class counts of the left and right branch.
+     * 
+     * @param cnt_left Class counts in the left branch
+     * @param n_left Number of instances in the left branch
+     * @param cnt_total Class counts in the dataset
+     * @param n Number of instances in the dataset
+     * @return Gini index value
+     */
+    private double gini_index(int[] cnt_left, int n_left, int[] cnt_total, int n)
     {
+        //Total number of instances
+        double n_instances = n;
+        //Gini index
+        double gini = 0.0;
+        
+        //Left branch
+        double size = n_left;
+        if (size > 0)
+        {
+            double score = 0.0;
+            for (int class_val : class_order)
+            {
+                double p = cnt_left[class_val] / size;
+                score += p * p;
+            }
+            gini += (1.0 - score) * (size / n_instances);
+        }
+        
+        //Right branch
+        size = n - n_left;
+        if (size > 0)
+        {
+            double score = 0.0;
+            for (int class_val : class_order)
+            {
+                double p = (cnt_total[class_val] - cnt_left[class_val]) / size;
+                score += p * p;
+            }
+            gini += (1.0 - score) * (size / n_instances);
+        }
+        
+        return gini;
+    }
+    
+    /**
+     * Search for and splits the instances of a node at the best attribute-value combination.
+     * Attributes are searched in parallel for large nodes.
+     * 
+     * @param node Node to split
+     * @return Node with the instances splitted in a left and a right branch
+     */
+    private Node get_exact_split(Node node)
+    {
+        int n = node.size();
+        int[] cnt_total = class_counts(node);
+        
+        //Best threshold for each attribute
+        ArrayList<Integer> inc = incIndexes(); //Used for forest classifier
+        double[] scores = new double[data.noInputs()];
+        double[] values = new double[data.noInputs()];
+        search_attributes(n, inc, a -> best_threshold(node, a, cnt_total, scores, values));
+        
         //Init variables
-        double b_index = -1;
+        int b_index = -1;
         double b_value = 0;
         double b_score = Double.MAX_VALUE;
-        Node[] b_groups = null; 
         
-        //Iterate over all attributes...
-        ArrayList<Integer> inc = incIndexes(); //Used for forest classifier
+        //Iterate over all attributes, in order
         for (int a = 0; a < data.noInputs(); a++)
         {
             //For random forest, only include a subset of the attributes
@@ -403,34 +1077,269 @@ public class CART extends Classifier
                 }
             }
             
-            //... and instances
-            for (Instance inst : data.data)
+            //Check if we have a new best split
+            if (scores[a] < b_score)
+            {
+                b_index = a;
+                b_value = values[a];
+                b_score = scores[a];
+            }
+        }
+        
+        //Create result node with the instances splitted into a
+        //left and right branch
+        return split_range(node, b_index, b_value);
+    }
+    
+    /**
+     * Finds the best threshold for an attribute. The instances are swept in sorted order
+     * while class counts for the left branch are updated, so the Gini index of every
+     * threshold is found in a single pass.
+     * 
+     * @param node Node to split
+     * @param a Attribute index
+     * @param cnt_total Class counts for all instances in the node
+     * @param scores Gini index of the best threshold for each attribute (result)
+     * @param values Best threshold for each attribute (result)
+     */
+    private void best_threshold(Node node, int a, int[] cnt_total, double[] scores, double[] values)
+    {
+        int n = node.size();
+        int[] ord = order[a];
+        int[] cnt_left = new int[noCategories];
+        double a_score = Double.MAX_VALUE;
+        double a_value = 0;
+        int a_first = Integer.MAX_VALUE;
+        int i = node.start;
+        while (i < node.end)
+        {
+            //Instances before this one have lower values and go to the left branch
+            double val = train[ord[i]].x.v[a];
+            double gini = gini_index(cnt_left, i - node.start, cnt_total, n);
+            
+            //Move all instances with this value to the left branch. The first of them in
+            //dataset (or sample) order is where this threshold is found when iterating 
+            //over the instances
+            int first = ord[i];
+            while (i < node.end && !(val < train[ord[i]].x.v[a]))
+            {
+                first = Math.min(first, ord[i]);
+                cnt_left[train_labels[ord[i]]]++;
+                i++;
+            }
+            
+            if (gini < a_score || (gini == a_score && first < a_first))
             {
-                //Current attribute value
-                double val = inst.x.get(a);
-                
-                //Test to split at this attribute-value combination
-                Node[] groups = test_split(a, val, data);
-                //Calculate Gini index for the split
-                double gini = gini_index(groups, classes);
-                //Check if we have a new best split
-                if (gini < b_score)
+                a_score = gini;
+                a_value = val;
+                a_first = first;
+            }
+        }
+        scores[a] = a_score;
+        values[a] = a_value;
+    }
+    
+    /**
+     * Counts the instances of each class in a node.
+     * 
+     * @param node The node
+     * @return Class counts
+     */
+    private int[] class_counts(Node node)
+    {
+        int[] cnt = new int[noCategories];
+        for (int i = node.start; i < node.end; i++)
+        {
+            cnt[train_labels[idx[i]]]++;
+        }
+        return cnt;
+    }
+    
+    /**
+     * Searches the included attributes, in parallel for large nodes. The search for an
+     * attribute must only write results for that attribute.
+     * 
+     * @param n Number of instances in the node
+     * @param inc Attributes to include, or null for all attributes
+     * @param search Search for an attribute
+     */
+    private void search_attributes(int n, ArrayList<Integer> inc, IntConsumer search)
+    {
+        int cnt = inc != null ? inc.size() : data.noInputs();
+        if (n >= PARALLEL_SIZE)
+        {
+            TensorExec.for_range(cnt, (long)cnt * n, i -> search.accept(inc != null ? inc.get(i) : i));
+        }
+        else
+        {
+            for (int i = 0; i < cnt; i++)
+            {
+                search.accept(inc != null ? inc.get(i) : i);
+            }
+        }
+    }
+    
+    /**
+     * Search for and splits the instances of a node at the best attribute-bin combination.
+     * Attributes are searched in parallel for large nodes.
+     * 
+     * @param node Node to split
+     * @param hist Class histogram for the instances in the node
+     * @return Node with the instances splitted in a left and a right branch
+     */
+    private Node get_binned_split(Node node, int[] hist)
+    {
+        int n = node.size();
+        int[] cnt_total = class_counts(node);
+        
+        //Best bin for each attribute
+        ArrayList<Integer> inc = incIndexes(); //Used for forest classifier
+        double[] scores = new double[data.noInputs()];
+        int[] bins = new int[data.noInputs()];
+        search_attributes(n, inc, a -> best_bin(node, hist, a, cnt_total, scores, bins));
+        
+        //Init variables
+        int b_index = -1;
+        int b_bin = 0;
+        double b_score = Double.MAX_VALUE;
+        
+        //Iterate over all attributes, in order
+        for (int a = 0; a < data.noInputs(); a++)
+        {
+            //For random forest, only include a subset of the attributes
+            if (inc != null)
+            {
+                if (!inc.contains(a)) 
                 {
-                    b_index = a;
-                    b_value = val;
-                    b_score = gini;
-                    b_groups = groups;
+                    continue;
                 }
             }
+            
+            //Check if we have a new best split
+            if (scores[a] < b_score)
+            {
+                b_index = a;
+                b_bin = bins[a];
+                b_score = scores[a];
+            }
         }
         
-        //Create result node with the dataset splitted into a
+        //Create result node with the instances splitted into a
         //left and right branch
-        Node n = new Node(data, (int)b_index, b_value);
-        n.left = b_groups[0];
-        n.right = b_groups[1];
+        Node n_split = split_range(node, b_index, edges[b_index][b_bin]);
+        n_split.hist = hist;
         
-        return n;
+        return n_split;
+    }
+    
+    /**
+     * Finds the best bin to split at for an attribute. The bins are swept in increasing
+     * order while class counts for the left branch are updated from the class histogram,
+     * so the cost does not depend on the number of instances. Bins with equal Gini index
+     * are resolved in the same way as thresholds in the exact search, i.e. by the first
+     * training instance in each bin.
+     * 
+     * @param node Node to split
+     * @param hist Class histogram for the instances in the node
+     * @param a Attribute index
+     * @param cnt_total Class counts for all instances in the node
+     * @param scores Gini index of the best bin for each attribute (result)
+     * @param bins Best bin for each attribute (result)
+     */
+    private void best_bin(Node node, int[] hist, int a, int[] cnt_total, double[] scores, int[] bins)
+    {
+        int n = node.size();
+        int[] cnt_left = new int[noCategories];
+        int n_left = 0;
+        double a_score = Double.MAX_VALUE;
+        int a_bin = 0;
+        //First instance in each bin, only found if bins have equal Gini index
+        int[] first = null;
+        for (int b = 0; b < edges[a].length; b++)
+        {
+            int o = (a * nbins + b) * (noCategories + 1);
+            int cnt = hist[o + noCategories];
+            //Empty bins give the same split as the next bin
+            if (cnt == 0) continue;
+            
+            //Instances in lower bins go to the left branch
+            double gini = gini_index(cnt_left, n_left, cnt_total, n);
+            if (gini == a_score && first == null)
+            {
+                first = first_in_bins(node, a);
+            }
+            if (gini < a_score || (gini == a_score && first[b] < first[a_bin]))
+            {
+                a_score = gini;
+                a_bin = b;
+            }
+            
+            //Move all instances in this bin to the left branch
+            for (int c = 0; c < noCategories; c++)
+            {
+                cnt_left[c] += hist[o + c];
+            }
+            n_left += cnt;
+        }
+        scores[a] = a_score;
+        bins[a] = a_bin;
+    }
+    
+    /**
+     * Finds the first training instance, in dataset (or sample) order, in each bin of an
+     * attribute for the instances in a node.
+     * 
+     * @param node The node
+     * @param a Attribute index
+     * @return First training instance in each bin
+     */
+    private int[] first_in_bins(Node node, int a)
+    {
+        int[] first = new int[nbins];
+        Arrays.fill(first, Integer.MAX_VALUE);
+        byte[] code = codes[a];
+        for (int i = node.start; i < node.end; i++)
+        {
+            int r = idx[i];
+            int b = code[r] & 0xFF;
+            if (r < first[b]) first[b] = r;
+        }
+        return first;
+    }
+    
+    /**
+     * Search for and splits the dataset at the best attribute-value combination.
+     * 
+     * @param data Dataset to split
+     * @return Node the dataset splitted in a left and a right branch, with labels calculated for the branches
+     * @deprecated Trees are built from index arrays of the training data, and this search is only kept for compatibility
+     */
+    @Deprecated
+    public Node get_split(Dataset data)
+    {
+        prepare(data.data.toArray(new Instance[0]));
+        order = sort_instances(train, data.noInputs());
+        Node node = get_exact_split(new Node(0, train.length, -1, 0));
+        node.left.calc_label();
+        node.right.calc_label();
+        release();
+        
+        return node;
+    }
+    
+    /**
+     * Search for and splits the instances of a node.
+     * 
+     * @param node Node to split
+     * @return Node with the instances splitted in a left and a right branch
+     */
+    private Node get_split(Node node)
+    {
+        if (codes != null)
+        {
+            return get_binned_split(node, node.hist);
+        }
+        return get_exact_split(node);
     }
     
     /**
@@ -446,11 +1355,15 @@ public class CART extends Classifier
         //Left and right branch nodes
         Node left = node.left;
         Node right = node.right;
+        //Class histogram, only needed until the children have theirs
+        int[] hist = node.hist;
+        node.hist = null;
 
         //No split since left or right is null
         if (left == null || right == null)
         {
             //Terminal node - calculate label
+            release_histogram(hist);
             node.calc_label();
             return;
         }
@@ -458,33 +1371,57 @@ public class CART extends Classifier
         if (depth >= max_depth)
         {
             //Terminal nodes - calculate labels
+            release_histogram(hist);
             node.left.calc_label();
             node.right.calc_label();
             return;
         }
-        //Process left child
-        if (left.data.size() <= min_size)
+        //Class histograms for the children, if any of them is split
+        if (hist != null && (left.size() > min_size || right.size() > min_size))
         {
-            //Terminal node - calculate label
-            node.left.calc_label();
+            child_histograms(node, hist);
         }
         else
         {
-            node.left = get_split(left.data);
-            //Recursive call
-            split(node.left, max_depth, min_size, depth + 1);
+            release_histogram(hist);
         }
-        //Process right child
-        if (right.data.size() <= min_size)
+        if (rnd == null && node.size() >= SUBTREE_SIZE)
         {
-            //Terminal node - calculate label
-            node.right.calc_label();
+            //Build the subtrees in parallel. Not done for random forest trees, since
+            //the randomizer must be used in the same order every time
+            TensorExec.for_range(2, (long)node.size() * data.noInputs(), c -> {
+                if (c == 0) node.left = build_child(left, max_depth, min_size, depth);
+                else node.right = build_child(right, max_depth, min_size, depth);
+            });
         }
         else
         {
-            node.right = get_split(right.data);
-            //Recursive call
-            split(node.right, max_depth, min_size, depth + 1);
+            node.left = build_child(left, max_depth, min_size, depth);
+            node.right = build_child(right, max_depth, min_size, depth);
         }
     }
+    
+    /**
+     * Builds the subtree for a child node.
+     * 
+     * @param child The child node
+     * @param max_depth Max depth of the tree
+     * @param min_size Minimum size of dataset for a split
+     * @param depth Depth of the parent node
+     * @return Node for the subtree
+     */
+    private Node build_child(Node child, int max_depth, int min_size, int depth)
+    {
+        if (child.size() <= min_size)
+        {
+            //Terminal node - calculate label
+            child.calc_label();
+            return child;
+        }
+        
+        Node n = get_split(child);
+        //Recursive call
+        split(n, max_depth, min_size, depth + 1);
+        return n;
+    }
 }
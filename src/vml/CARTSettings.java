@@ -23,6 +23,12 @@ public class CARTSettings
      */
     public boolean shuffle = true;
     
+    /**
+     * Number of bins per attribute for histogram-based split search (max 256).
+     * 0 searches all attribute values.
+     */
+    public int bins = 0;
+    
     /**
      * Creates default settings.
      */
@@ -31,5 +37,6 @@ public class CARTSettings
         max_depth = 5;
         min_size = 10;
         shuffle = true;
+        bins = 0;
     }
 }
@@ -2,6 +2,7 @@
 package vml;
 
 import java.text.DecimalFormat;
+import java.util.Random;
 
 /**
  * Base class for classifiers.
@@ -11,7 +12,7 @@ import java.text.DecimalFormat;
 public abstract class Classifier 
 {
     //Output formatting
-    private static DecimalFormat df = new DecimalFormat("0.00"); 
+    protected static DecimalFormat df = new DecimalFormat("0.00"); 
     /**
      * Seed for classifier randomiser.
      */
@@ -34,6 +35,146 @@ public abstract class Classifier
     protected boolean iterable = false;
     //Finished training
     protected boolean training_done = false;
+    //Sets if the train order shall be shuffled each epoch in batch training
+    protected boolean shuffle_epochs = false;
+    //Order to train instances in, or null to use the order in the dataset
+    protected int[] order;
+    //Randomizer for the train order
+    private Random order_rnd;
+    //Input and label tensors for the whole training dataset
+    private Tensor2D data_X;
+    private Tensor1D data_y;
+    //Dataset and dataset modifications when the tensors were created
+    private Dataset data_src;
+    private int data_mods;
+    //Current batch, as a view of the training tensor or copied using the train order
+    private Tensor2D batch_view;
+    private Tensor2D batch_buf;
+    private Tensor1D batch_y;
+    
+    /**
+     * Creates the input and label tensors for the training dataset. The tensors are only
+     * created again if the training dataset has been replaced (for example for each fold in
+     * cross-validation) or modified.
+     */
+    private void create_data_tensors()
+    {
+        if (data_X == null || data_src != data || data_X.columns() != data.size() || data_mods != data.modifications())
+        {
+            data_X = data.input_tensor(data_X);
+            data_y = data.label_tensor(data_y);
+            data_src = data;
+            data_mods = data.modifications();
+        }
+    }
+    
+    /**
+     * Returns the input tensor for the whole training dataset.
+     * 
+     * @return Input tensor
+     */
+    protected Tensor2D data_input()
+    {
+        create_data_tensors();
+        return data_X;
+    }
+    
+    /**
+     * Returns the label tensor for the whole training dataset.
+     * 
+     * @return Label tensor
+     */
+    protected Tensor1D data_labels()
+    {
+        create_data_tensors();
+        return data_y;
+    }
+    
+    /**
+     * Moves to the next batch for batch training. The input tensor for the batch is a view
+     * of the columns in the training tensor, or, if a train order is set, the columns are 
+     * copied into a re-used tensor. No datasets or tensors are created for each batch.
+     */
+    protected void next_batch()
+    {
+        create_data_tensors();
+        
+        //New epoch
+        if (batch_no == 0 && shuffle_epochs)
+        {
+            shuffle_order();
+        }
+        
+        //Start index and size of the batch
+        int start = batch_no * batch_size;
+        int n = Math.min(batch_size, data.size() - start);
+        
+        if (order == null)
+        {
+            batch_view = data_X.view_columns(start, n, batch_view);
+        }
+        else
+        {
+            batch_buf = data_X.gather_columns(order, start, n, batch_buf);
+        }
+        
+        batch_y = Tensor1D.reuse(batch_y, n);
+        for (int i = 0; i < n; i++)
+        {
+            int idx = order == null ? start + i : order[start + i];
+            batch_y.v[i] = data_y.v[idx];
+        }
+        
+        batch_no++;
+        if (start + batch_size >= data.size()) batch_no = 0;
+    }
+    
+    /**
+     * Shuffles the train order using the Fisher-Yates algorithm. Only the indexes are moved,
+     * and the randomizer is seeded from the classifier seed so training is reproducible.
+     */
+    private void shuffle_order()
+    {
+        if (order == null || order.length != data.size())
+        {
+            order = new int[data.size()];
+            for (int i = 0; i < order.length; i++)
+            {
+                order[i] = i;
+            }
+            //Offset the seed so the order does not repeat the random sequence
+            //classifiers use for weight initialization
+            order_rnd = new Random(seed + 1);
+        }
+        
+        for (int i = order.length - 1; i > 0; i--)
+        {
+            int j = order_rnd.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+    
+    /**
+     * Returns the input tensor for the current batch.
+     * 
+     * @return Input tensor
+     */
+    protected Tensor2D batch_input()
+    {
+        return order == null ? batch_view : batch_buf;
+    }
+    
+    /**
+     * Returns the label tensor for the current batch.
+     * 
+     * @return Label tensor
+     */
+    protected Tensor1D batch_labels()
+    {
+        return batch_y;
+    }
     
     /**
      * Get next batch for batch training
@@ -130,6 +271,23 @@ public abstract class Classifier
      */
     public abstract int classify(int i);
     
+    /**
+     * Classifies all instances in the dataset. Classifiers that can classify several
+     * instances at the same time override this to classify them in parallel.
+     * 
+     * @param n Number of instances
+     * @return Predicted class values
+     */
+    public int[] classify_all(int n)
+    {
+        int[] pred = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            pred[i] = classify(i);
+        }
+        return pred;
+    }
+    
     /**
      * Classifies an instance.
      * 
@@ -208,6 +366,7 @@ public abstract class Classifier
         m.compute(this);
         
         out.appendText("Accuracy: " + m.getCorrectlyClassified() + "/" + d.size() + "  " + df.format(m.getAccuracy()) + "%");
+        evaluation_info(out);
         
         m.format_conf_matrix(out);
         m.format_scores(out);
@@ -215,6 +374,16 @@ public abstract class Classifier
         return m;
     }
     
+    /**
+     * Appends classifier specific information about the last evaluation to the log.
+     * 
+     * @param out Logger for log info
+     */
+    protected void evaluation_info(Logger out)
+    {
+        
+    }
+    
     /**
      * Calculates the accuracy on the training dataset.
      * 
@@ -168,6 +168,7 @@ public class ClassifierFactory
             }
             if (exists(e, "BatchSize")) settings.batch_size = getInt(e, "BatchSize");
             if (exists(e, "ShuffleData")) settings.shuffle = getBoolean(e, "ShuffleData");
+            if (exists(e, "ShuffleEpochs")) settings.shuffle_epochs = getBoolean(e, "ShuffleEpochs");
             
             //Read training dataset
             DataSource reader = new DataSource();
@@ -226,6 +227,7 @@ public class ClassifierFactory
             if (exists(e, "MaxDepth")) settings.max_depth = getInt(e, "MaxDepth");
             if (exists(e, "MinSize")) settings.min_size = getInt(e, "MinSize");
             if (exists(e, "ShuffleData")) settings.shuffle = getBoolean(e, "ShuffleData");
+            if (exists(e, "Bins")) settings.bins = getInt(e, "Bins");
             
             //Read training dataset
             DataSource reader = new DataSource();
@@ -271,6 +273,7 @@ public class ClassifierFactory
             if (exists(e, "Trees")) settings.trees = getInt(e, "Trees");
             if (exists(e, "SampleSize")) settings.sample_size = getDouble(e, "SampleSize");
             if (exists(e, "ShuffleData")) settings.shuffle = getBoolean(e, "ShuffleData");
+            if (exists(e, "Bins")) settings.bins = getInt(e, "Bins");
             
             //Read training dataset
             DataSource reader = new DataSource();
@@ -334,6 +337,7 @@ public class ClassifierFactory
                 }
             }
             if (exists(e, "ShuffleData")) settings.shuffle = getBoolean(e, "ShuffleData");
+            if (exists(e, "ShuffleEpochs")) settings.shuffle_epochs = getBoolean(e, "ShuffleEpochs");
             
             //Read training dataset
             DataSource reader = new DataSource();
@@ -396,6 +400,25 @@ public class ClassifierFactory
                 if (t.equalsIgnoreCase("L1")) settings.distance_measure = KNNSettings.L1;
                 if (t.equalsIgnoreCase("L2")) settings.distance_measure = KNNSettings.L2;
             }
+            if (exists(e, "Index"))
+            {
+                String t = get(e, "Index");
+                if (t.equalsIgnoreCase("auto")) settings.index = KNNSettings.AUTO;
+                if (t.equalsIgnoreCase("linear")) settings.index = KNNSettings.LINEAR;
+                if (t.equalsIgnoreCase("kdtree")) settings.index = KNNSettings.KDTREE;
+                if (t.equalsIgnoreCase("balltree")) settings.index = KNNSettings.BALLTREE;
+                if (t.equalsIgnoreCase("hnsw")) settings.index = KNNSettings.HNSW;
+                if (t.equalsIgnoreCase("lsh")) settings.index = KNNSettings.LSH;
+                if (t.equalsIgnoreCase("pq")) settings.index = KNNSettings.PQ;
+            }
+            if (exists(e, "M")) settings.hnsw_m = getInt(e, "M");
+            if (exists(e, "Ef")) settings.hnsw_ef = getInt(e, "Ef");
+            if (exists(e, "EfConstruction")) settings.hnsw_ef_construction = getInt(e, "EfConstruction");
+            if (exists(e, "Tables")) settings.lsh_tables = getInt(e, "Tables");
+            if (exists(e, "Hashes")) settings.lsh_hashes = getInt(e, "Hashes");
+            if (exists(e, "HashWidth")) settings.lsh_width = getDouble(e, "HashWidth");
+            if (exists(e, "Subspaces")) settings.pq_subspaces = getInt(e, "Subspaces");
+            if (exists(e, "Shortlist")) settings.pq_shortlist = getInt(e, "Shortlist");
             if (exists(e, "ShuffleData")) settings.shuffle = getBoolean(e, "ShuffleData");
             
             //Read training dataset
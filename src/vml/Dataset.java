@@ -22,6 +22,8 @@ public class Dataset
     private HashMap<Integer,String> intToCat;
     //Private string name
     private String name;
+    //Number of modifications (added instances, normalization, shuffle) made to the dataset
+    private int modifications = 0;
     
     /**
      * Creates a new, empty dataset.
@@ -135,6 +137,7 @@ public class Dataset
     public void add(Instance inst)
     {
         data.add(inst);
+        modifications++;
         
         //Keep track of attribute min and max values (for normalizing)
         if (min == null)
@@ -257,6 +260,8 @@ public class Dataset
      */
     public void normalizeAttributes(int min_value, int max_value)
     {
+        modifications++;
+        
         //Feature-wise normalization where we subtract the mean and divide with std
         if (min_value == 0 && max_value == 0)
         {
@@ -320,6 +325,18 @@ public class Dataset
     public void shuffle()
     {
         Collections.shuffle(data, new Random(DataSource.seed));
+        modifications++;
+    }
+    
+    /**
+     * Returns the number of modifications made to the dataset using add, normalizeAttributes
+     * and shuffle. Used to check if tensors created from the dataset are still valid.
+     * 
+     * @return Number of modifications
+     */
+    public int modifications()
+    {
+        return modifications;
     }
     
     @Override
@@ -340,9 +357,21 @@ public class Dataset
      * @return Input tensor
      */
     public Tensor2D input_tensor()
+    {
+        return input_tensor(null);
+    }
+    
+    /**
+     * Creates an input tensor for this dataset, re-using the specified tensor if it has
+     * the correct size.
+     * 
+     * @param X Input tensor to re-use, or null
+     * @return Input tensor
+     */
+    public Tensor2D input_tensor(Tensor2D X)
     {
         //Create instances tensor
-        Tensor2D X = Tensor2D.zeros(noInputs(), size());
+        X = Tensor2D.reuse(X, noInputs(), size());
         for (int r = 0; r < size(); r++)
         {
             Instance inst = data.get(r);
@@ -361,9 +390,21 @@ public class Dataset
      * @return Label tensor
      */
     public Tensor1D label_tensor()
+    {
+        return label_tensor(null);
+    }
+    
+    /**
+     * Creates a label tensor for this dataset, re-using the specified tensor if it has
+     * the correct size.
+     * 
+     * @param y Label tensor to re-use, or null
+     * @return Label tensor
+     */
+    public Tensor1D label_tensor(Tensor1D y)
     {
         //Create label (correct class) tensor
-        Tensor1D y = Tensor1D.zeros(size());
+        y = Tensor1D.reuse(y, size());
         for (int r = 0; r < size(); r++)
         {
             Instance inst = data.get(r);
@@ -86,7 +86,7 @@ public class EigenDecomp
             for (int c = 0; c < I.columns(); c++)
             {
                 //Current value
-                double val = I.v[r][c];
+                double val = I.get(r, c);
                 //Should be 0, unless...
                 double targ = 0;
                 //... it is the main diagonal, then it should be 1
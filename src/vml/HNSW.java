@@ -0,0 +1,365 @@
+package vml;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world (HNSW) graph for approximate nearest neighbor search.
+ * Each training instance is a node on layer 0 and, with exponentially decreasing probability,
+ * on higher layers. Nodes are linked to up to M near nodes on each layer (2*M on layer 0).
+ * A search starts at the top layer, walks greedily towards the query on each layer, and then
+ * explores the graph on layer 0 keeping the ef nearest nodes found. Larger M and ef give
+ * higher recall at the cost of more distance calculations. Results are approximate, i.e.
+ * some of the K nearest neighbors can be missed.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class HNSW extends NeighborIndex
+{
+    //Seed for the random layer assignment, so the graph is the same between runs
+    private static final long SEED = 42;
+
+    //Attributes, instance by instance
+    private final double[] pts;
+    //Max number of links per node on higher layers (layer 0 has 2*M)
+    private final int M;
+    //Size of the candidate list during search
+    private final int ef;
+    //Size of the candidate list when the graph is built
+    private final int ef_construction;
+
+    //Highest layer of each node
+    private final int[] level;
+    //Links for each node and layer, where the first value is the number of links
+    private final int[][][] links;
+    //Entry point (a node on the top layer) and the top layer
+    private int entry = -1;
+    private int top = -1;
+    //Visit mark for the last layer search while building the graph
+    private int mark = 0;
+
+    /**
+     * Builds a graph for a training dataset.
+     *
+     * @param data Training dataset
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2)
+     * @param M Max number of links per node on higher layers
+     * @param ef Size of the candidate list during search
+     * @param ef_construction Size of the candidate list when the graph is built
+     */
+    HNSW(Dataset data, int measure, int M, int ef, int ef_construction)
+    {
+        super(measure, data.noInputs());
+
+        this.M = Math.max(2, M);
+        this.ef = Math.max(1, ef);
+        this.ef_construction = Math.max(this.M, ef_construction);
+
+        int n = data.size();
+        pts = flatten(data);
+        level = new int[n];
+        links = new int[n][][];
+
+        //Insert instances one at a time
+        Random rnd = new Random(SEED);
+        double ml = 1.0 / Math.log(this.M);
+        int[] visited = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            int l = (int)(-Math.log(1.0 - rnd.nextDouble()) * ml);
+            insert(i, l, visited);
+        }
+    }
+
+    /**
+     * Returns the max number of links per node on a layer.
+     */
+    private int max_links(int layer)
+    {
+        return layer == 0 ? 2 * M : M;
+    }
+
+    /**
+     * Inserts a node into the graph.
+     *
+     * @param node Node to insert
+     * @param l Highest layer for the node
+     * @param visited Visit marks for the node
+     */
+    private void insert(int node, int l, int[] visited)
+    {
+        level[node] = l;
+        links[node] = new int[l + 1][];
+        for (int lc = 0; lc <= l; lc++)
+        {
+            links[node][lc] = new int[max_links(lc) + 2];
+        }
+
+        if (entry == -1)
+        {
+            entry = node;
+            top = l;
+            return;
+        }
+
+        int o = node * dim;
+        int ep = entry;
+        //Walk greedily on the layers above the node
+        for (int lc = top; lc > l; lc--)
+        {
+            ep = greedy(pts, o, ep, lc);
+        }
+
+        //Find and link neighbors on each layer of the node
+        NeighborHeap w = new NeighborHeap(ef_construction);
+        for (int lc = Math.min(top, l); lc >= 0; lc--)
+        {
+            search_layer(pts, o, ep, lc, w, visited, ++mark);
+            int[] cand = sorted(w);
+            int[] sel = select(node, cand, M);
+            for (int e : sel)
+            {
+                link(node, e, lc);
+                link(e, node, lc);
+            }
+            //Continue from the nearest node found
+            ep = cand[0];
+        }
+
+        if (l > top)
+        {
+            top = l;
+            entry = node;
+        }
+    }
+
+    /**
+     * Adds a link from a node to another node, and shrinks the links of the node if it
+     * has too many.
+     *
+     * @param from Node to add the link to
+     * @param to Linked node
+     * @param lc Layer
+     */
+    private void link(int from, int to, int lc)
+    {
+        int[] nb = links[from][lc];
+        int cnt = nb[0];
+        nb[cnt + 1] = to;
+        cnt++;
+        if (cnt <= max_links(lc))
+        {
+            nb[0] = cnt;
+            return;
+        }
+
+        //Too many links, so keep the best by the selection heuristic
+        NeighborHeap h = new NeighborHeap(cnt);
+        for (int i = 1; i <= cnt; i++)
+        {
+            h.offer(dist(pts, from * dim, pts, nb[i] * dim), nb[i]);
+        }
+        int[] sel = select(from, sorted(h), max_links(lc));
+        nb[0] = sel.length;
+        System.arraycopy(sel, 0, nb, 1, sel.length);
+    }
+
+    /**
+     * Selects neighbors for a node from candidates sorted by distance. A candidate is only
+     * selected if it is nearer to the node than to all already selected neighbors, which
+     * spreads the links in different directions.
+     *
+     * @param node The node
+     * @param cand Candidates, nearest first
+     * @param max Max number of neighbors to select
+     * @return Selected neighbors
+     */
+    private int[] select(int node, int[] cand, int max)
+    {
+        int[] sel = new int[Math.min(max, cand.length)];
+        int cnt = 0;
+        for (int i = 0; i < cand.length && cnt < sel.length; i++)
+        {
+            int c = cand[i];
+            if (c == node) continue;
+            double d = dist(pts, node * dim, pts, c * dim);
+            boolean keep = true;
+            for (int j = 0; j < cnt && keep; j++)
+            {
+                if (dist(pts, c * dim, pts, sel[j] * dim) < d) keep = false;
+            }
+            if (keep) sel[cnt++] = c;
+        }
+        if (cnt == sel.length) return sel;
+        int[] res = new int[cnt];
+        System.arraycopy(sel, 0, res, 0, cnt);
+        return res;
+    }
+
+    /**
+     * Returns the nodes in a heap sorted by distance, nearest first.
+     *
+     * @param h The heap
+     * @return Sorted nodes
+     */
+    private static int[] sorted(NeighborHeap h)
+    {
+        int n = h.size();
+        int[] idx = new int[n];
+        double[] d = new double[n];
+        //Insertion sort, since the heap is small
+        for (int i = 0; i < n; i++)
+        {
+            int j = i;
+            while (j > 0 && (d[j - 1] > h.dist(i) || (d[j - 1] == h.dist(i) && idx[j - 1] > h.index(i))))
+            {
+                d[j] = d[j - 1];
+                idx[j] = idx[j - 1];
+                j--;
+            }
+            d[j] = h.dist(i);
+            idx[j] = h.index(i);
+        }
+        return idx;
+    }
+
+    /**
+     * Walks greedily towards a query on a layer.
+     *
+     * @param q Values array with the query
+     * @param qo Index of the first attribute of the query
+     * @param ep Node to start from
+     * @param lc Layer
+     * @return Nearest node found
+     */
+    private int greedy(double[] q, int qo, int ep, int lc)
+    {
+        double best = dist(q, qo, pts, ep * dim);
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            int[] nb = links[ep][lc];
+            for (int i = 1; i <= nb[0]; i++)
+            {
+                double d = dist(q, qo, pts, nb[i] * dim);
+                if (d < best)
+                {
+                    best = d;
+                    ep = nb[i];
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * Searches a layer for the nearest nodes to a query, starting from an entry node. The
+     * result heap is cleared and filled with the nearest nodes found.
+     *
+     * @param q Values array with the query
+     * @param qo Index of the first attribute of the query
+     * @param ep Node to start from
+     * @param lc Layer
+     * @param w Heap for the nearest nodes found, with capacity ef
+     * @param visited Visit marks for the nodes
+     * @param mark Value that marks nodes as visited in this search
+     */
+    private void search_layer(double[] q, int qo, int ep, int lc, NeighborHeap w, int[] visited, int mark)
+    {
+        //Candidates to expand, as a min-heap on distance
+        double[] cd = new double[16];
+        int[] ci = new int[16];
+        int cn = 0;
+
+        w.clear();
+        double d0 = dist(q, qo, pts, ep * dim);
+        w.offer(d0, ep);
+        visited[ep] = mark;
+        cd[0] = d0;
+        ci[0] = ep;
+        cn = 1;
+
+        while (cn > 0)
+        {
+            //Take the nearest candidate
+            double d = cd[0];
+            int c = ci[0];
+            cn--;
+            int p = 0;
+            while (true)
+            {
+                int ch = 2 * p + 1;
+                if (ch >= cn) break;
+                if (ch + 1 < cn && cd[ch + 1] < cd[ch]) ch++;
+                if (cd[cn] <= cd[ch]) break;
+                cd[p] = cd[ch];
+                ci[p] = ci[ch];
+                p = ch;
+            }
+            cd[p] = cd[cn];
+            ci[p] = ci[cn];
+
+            //All remaining candidates are farther than the nearest nodes found
+            if (d > w.worst()) break;
+
+            int[] nb = links[c][lc];
+            for (int i = 1; i <= nb[0]; i++)
+            {
+                int e = nb[i];
+                if (visited[e] == mark) continue;
+                visited[e] = mark;
+                double de = dist(q, qo, pts, e * dim, w.worst());
+                if (de < w.worst() || w.size() < w.capacity())
+                {
+                    w.offer(de, e);
+                    //Add to candidates
+                    if (cn == cd.length)
+                    {
+                        cd = Arrays.copyOf(cd, cn * 2);
+                        ci = Arrays.copyOf(ci, cn * 2);
+                    }
+                    int k = cn++;
+                    while (k > 0)
+                    {
+                        int pk = (k - 1) >> 1;
+                        if (cd[pk] <= de) break;
+                        cd[k] = cd[pk];
+                        ci[k] = ci[pk];
+                        k = pk;
+                    }
+                    cd[k] = de;
+                    ci[k] = e;
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean exact()
+    {
+        return false;
+    }
+
+    @Override
+    void search(double[] q, NeighborHeap heap)
+    {
+        heap.clear();
+        if (entry == -1) return;
+
+        int ep = entry;
+        for (int lc = top; lc > 0; lc--)
+        {
+            ep = greedy(q, 0, ep, lc);
+        }
+
+        NeighborHeap w = new NeighborHeap(Math.max(ef, heap.capacity()));
+        VisitMarks v = visit_marks(level.length);
+        search_layer(q, 0, ep, 0, w, v.marks, v.next());
+        for (int i = 0; i < w.size(); i++)
+        {
+            heap.offer(w.dist(i), w.index(i));
+        }
+    }
+}
@@ -14,12 +14,13 @@ public class HiddenLayer
     protected Tensor2D w;
     //Bias tensor
     protected Tensor1D b;
-    //Gradients for gradient descent optimization
+    //Gradients for gradient descent optimization. The tensors are re-used
+    //between batches and also hold the momentum from previous gradients
     private Tensor2D dW;
     private Tensor1D dB;
     //Training dataset
     private Tensor2D X;
-    //Scores tensor = X*W
+    //Scores tensor = max(0, X*W+b)
     protected Tensor2D scores;
     //ReLU gradients tensor
     protected Tensor2D dhidden;
@@ -75,11 +76,8 @@ public class HiddenLayer
     {
         this.X = X;
         
-        //Activation
-        scores = Tensor2D.activation(w, X, b);
-        
-        //ReLU activation
-        scores.max(0);
+        //Activation and ReLU in one pass, re-using the scores tensor
+        scores = Tensor2D.activation_relu(w, X, b, scores);
     }
     
     /**
@@ -92,10 +90,7 @@ public class HiddenLayer
         {
             if (rnd.nextDouble() < settings.dropout)
             {
-                for (int c = 0; c < scores.columns(); c++)
-                {
-                    scores.v[r][c] = 0;
-                }
+                scores.fill_row(r, 0);
             }
         }
     }
@@ -127,29 +122,14 @@ public class HiddenLayer
         calc_regularization();
         
         //Backprop into hidden layer
-        dhidden = Tensor2D.transpose_mul(w2, dscores);
+        dhidden = Tensor2D.transpose_mul(w2, dscores, dhidden);
         //Backprop the ReLU non-linearity (set dhidden to 0 if activation is 0
         dhidden.backprop_relu(scores);
         
-        //Momentum
-        Tensor2D oldDW = null;
-        Tensor1D oldDB = null;
-        if (dW != null && settings.momentum > 0.0)
-        {
-            oldDW = dW.copy();
-            oldDB = dB.copy();
-        }
-        
-        //And finally the gradients
-        dW = Tensor2D.mul_transpose(dhidden, X);
-        dB = dhidden.sum_rows();
-        
-        //Momentum
-        if (oldDW != null && settings.momentum > 0.0)
-        {
-            dW.add(oldDW, settings.momentum);
-            dB.add(oldDB, settings.momentum);
-        }
+        //And finally the gradients, with momentum from the previous gradients
+        //added in place
+        dW = Tensor2D.mul_transpose(dhidden, X, dW, settings.momentum);
+        dB = dhidden.sum_rows(dB, settings.momentum);
         
         //Add regularization to gradients
         //The weight tensor scaled by Lambda*0.5 is added
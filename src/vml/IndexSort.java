@@ -0,0 +1,112 @@
+package vml;
+
+/**
+ * Stable sorting of index arrays by a key for each index. Indexes are sorted as primitive
+ * ints, so no boxed values or comparators are used. Short runs are first sorted by
+ * insertion sort, and the runs are then merged bottom-up.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class IndexSort
+{
+    //Length of the runs sorted by insertion sort
+    private static final int RUN = 32;
+
+    /**
+     * Sorts indexes by increasing key. Indexes with equal keys keep their order.
+     *
+     * @param idx Indexes to sort
+     * @param key Key for each index
+     * @param tmp Buffer with at least the same length as the indexes
+     */
+    static void sort(int[] idx, double[] key, int[] tmp)
+    {
+        int n = idx.length;
+        for (int lo = 0; lo < n; lo += RUN)
+        {
+            int hi = Math.min(lo + RUN, n);
+            for (int i = lo + 1; i < hi; i++)
+            {
+                int e = idx[i];
+                int j = i - 1;
+                while (j >= lo && key[e] < key[idx[j]])
+                {
+                    idx[j + 1] = idx[j];
+                    j--;
+                }
+                idx[j + 1] = e;
+            }
+        }
+
+        for (int w = RUN; w < n; w *= 2)
+        {
+            for (int lo = 0; lo < n - w; lo += 2 * w)
+            {
+                int mid = lo + w;
+                int hi = Math.min(lo + 2 * w, n);
+                //Already in order
+                if (!(key[idx[mid]] < key[idx[mid - 1]])) continue;
+
+                System.arraycopy(idx, lo, tmp, lo, hi - lo);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi)
+                {
+                    idx[k++] = key[tmp[j]] < key[tmp[i]] ? tmp[j++] : tmp[i++];
+                }
+                while (i < mid) idx[k++] = tmp[i++];
+                while (j < hi) idx[k++] = tmp[j++];
+            }
+        }
+    }
+
+    /**
+     * Sorts indexes by increasing key. Indexes with equal keys keep their order.
+     *
+     * @param idx Indexes to sort
+     * @param key Key for each index
+     * @param tmp Buffer with at least the same length as the indexes
+     */
+    static void sort(int[] idx, long[] key, int[] tmp)
+    {
+        int n = idx.length;
+        for (int lo = 0; lo < n; lo += RUN)
+        {
+            int hi = Math.min(lo + RUN, n);
+            for (int i = lo + 1; i < hi; i++)
+            {
+                int e = idx[i];
+                int j = i - 1;
+                while (j >= lo && key[e] < key[idx[j]])
+                {
+                    idx[j + 1] = idx[j];
+                    j--;
+                }
+                idx[j + 1] = e;
+            }
+        }
+
+        for (int w = RUN; w < n; w *= 2)
+        {
+            for (int lo = 0; lo < n - w; lo += 2 * w)
+            {
+                int mid = lo + w;
+                int hi = Math.min(lo + 2 * w, n);
+                //Already in order
+                if (!(key[idx[mid]] < key[idx[mid - 1]])) continue;
+
+                System.arraycopy(idx, lo, tmp, lo, hi - lo);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi)
+                {
+                    idx[k++] = key[tmp[j]] < key[tmp[i]] ? tmp[j++] : tmp[i++];
+                }
+                while (i < mid) idx[k++] = tmp[i++];
+                while (j < hi) idx[k++] = tmp[j++];
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package vml;
+
+import java.util.Arrays;
+
+/**
+ * KD-tree for exact nearest neighbor search. Each node splits its instances at the median
+ * of the attribute with the largest spread, and instances are stored in tree order in a
+ * single array so leaves are scanned sequentially. A subtree is only searched if the
+ * distance to its splitting plane is within the distance to the K:th nearest neighbor
+ * found so far. KD-trees are fast for datasets with few attributes, but approach a full
+ * scan as the number of attributes grows.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class KDTree extends NeighborIndex
+{
+    //Maximum number of instances in a leaf
+    private static final int LEAF_SIZE = 8;
+
+    //Attributes, instance by instance in tree order
+    private final double[] pts;
+    //Training instance index for each position in tree order
+    private final int[] idx;
+
+    //Nodes: split attribute (-1 for leaves), split value, children and range of instances
+    private int[] split_attr;
+    private double[] split_val;
+    private int[] left;
+    private int[] right;
+    private int[] start;
+    private int[] end;
+    private int nodes = 0;
+
+    /**
+     * Builds a KD-tree for a training dataset.
+     *
+     * @param data Training dataset
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2)
+     */
+    KDTree(Dataset data, int measure)
+    {
+        super(measure, data.noInputs());
+
+        int n = data.size();
+        double[] src = flatten(data);
+        idx = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            idx[i] = i;
+        }
+
+        int cap = 2 * (n / LEAF_SIZE + 1);
+        split_attr = new int[cap];
+        split_val = new double[cap];
+        left = new int[cap];
+        right = new int[cap];
+        start = new int[cap];
+        end = new int[cap];
+
+        build(src, 0, n);
+
+        //Store attributes in tree order
+        pts = new double[n * dim];
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(src, idx[i] * dim, pts, i * dim, dim);
+        }
+    }
+
+    /**
+     * Builds the subtree for a range of instances.
+     *
+     * @param src Attributes in dataset order
+     * @param lo First position in the range
+     * @param hi End position (exclusive)
+     * @return Node index
+     */
+    private int build(double[] src, int lo, int hi)
+    {
+        int node = new_node(lo, hi);
+        if (hi - lo <= LEAF_SIZE) return node;
+
+        //Find the attribute with the largest spread
+        int best = -1;
+        double best_spread = 0;
+        for (int a = 0; a < dim; a++)
+        {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++)
+            {
+                double v = src[idx[i] * dim + a];
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            if (max - min > best_spread)
+            {
+                best_spread = max - min;
+                best = a;
+            }
+        }
+        //All instances are equal, so keep them in a leaf
+        if (best == -1) return node;
+
+        //Split at the median
+        int mid = (lo + hi) >>> 1;
+        select(src, best, lo, hi - 1, mid);
+        split_attr[node] = best;
+        split_val[node] = src[idx[mid] * dim + best];
+        int l = build(src, lo, mid);
+        int r = build(src, mid, hi);
+        left[node] = l;
+        right[node] = r;
+
+        return node;
+    }
+
+    /**
+     * Creates a new leaf node.
+     *
+     * @param lo First position in the range
+     * @param hi End position (exclusive)
+     * @return Node index
+     */
+    private int new_node(int lo, int hi)
+    {
+        if (nodes == split_attr.length)
+        {
+            int cap = nodes * 2;
+            split_attr = Arrays.copyOf(split_attr, cap);
+            split_val = Arrays.copyOf(split_val, cap);
+            left = Arrays.copyOf(left, cap);
+            right = Arrays.copyOf(right, cap);
+            start = Arrays.copyOf(start, cap);
+            end = Arrays.copyOf(end, cap);
+        }
+        split_attr[nodes] = -1;
+        start[nodes] = lo;
+        end[nodes] = hi;
+        return nodes++;
+    }
+
+    /**
+     * Reorders the range so the instance at position k has the value it would have if the
+     * range was sorted by the attribute, with lower or equal values before and higher or
+     * equal values after it (quickselect).
+     *
+     * @param src Attributes in dataset order
+     * @param a Attribute
+     * @param lo First position
+     * @param hi Last position (inclusive)
+     * @param k Position to select
+     */
+    private void select(double[] src, int a, int lo, int hi, int k)
+    {
+        while (hi > lo)
+        {
+            double pivot = src[idx[(lo + hi) >>> 1] * dim + a];
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+            {
+                while (src[idx[i] * dim + a] < pivot) i++;
+                while (src[idx[j] * dim + a] > pivot) j--;
+                if (i <= j)
+                {
+                    int t = idx[i];
+                    idx[i] = idx[j];
+                    idx[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    @Override
+    void search(double[] q, NeighborHeap heap)
+    {
+        heap.clear();
+        search(0, q, heap);
+    }
+
+    /**
+     * Searches a subtree.
+     *
+     * @param node Node index
+     * @param q Query attributes
+     * @param heap Heap that holds the neighbors
+     */
+    private void search(int node, double[] q, NeighborHeap heap)
+    {
+        if (split_attr[node] == -1)
+        {
+            //Leaf: check all instances
+            for (int i = start[node]; i < end[node]; i++)
+            {
+                heap.offer(dist(q, 0, pts, i * dim, heap.worst()), idx[i]);
+            }
+            return;
+        }
+
+        //Search the side of the split the query is on first
+        double diff = q[split_attr[node]] - split_val[node];
+        int near = diff < 0 ? left[node] : right[node];
+        int far = diff < 0 ? right[node] : left[node];
+        search(near, q, heap);
+        //Neighbors at the same distance as the K:th nearest can still be added
+        //if they have a lower index, so only prune on strictly larger bounds
+        if (bound(diff) <= heap.worst())
+        {
+            search(far, q, heap);
+        }
+    }
+}
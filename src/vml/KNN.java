@@ -1,9 +1,6 @@
 
 package vml;
 
-import java.util.ArrayList;
-import java.util.stream.IntStream;
-
 /**
  * k-Nearest Neighbor classifier.
  * 
@@ -11,42 +8,42 @@ import java.util.stream.IntStream;
  */
 public class KNN extends Classifier
 {
-    /**
-     * Internal class to hold training examples and distances.
-     */
-    private class KInstance implements Comparable
-    {
-        //Attributes
-        Tensor1D x;
-        //Label
-        int label;
-        //Distance
-        double dist;
-        
-        /**
-         * Creates a new instance.
-         * 
-         * @param x Attributes
-         * @param label Label
-         */
-        public KInstance(Tensor1D x, int label)
-        {
-            this.x = x;
-            this.label = label;
-        }
-        
-        @Override
-        public int compareTo(Object o)
-        {
-            KInstance ki = (KInstance)o;
-            Double a = dist;
-            Double b = ki.dist;
-            return a.compareTo(b);
-        }
-    }
+    //Max number of attributes for using a KD-tree when the index is set to AUTO
+    private static final int KDTREE_MAX_INPUTS = 10;
+    //Number of test and training instances in a block of the L2 distance matrix
+    private static final int QUERY_BLOCK = 64;
+    private static final int TRAIN_BLOCK = 2048;
+    //Number of extra candidates kept from the matrix product distances, since cancellation
+    //errors in ||q||^2 + ||x||^2 - 2*q*x can move a true neighbor just past the K:th candidate
+    private static final int SHORTLIST_MARGIN = 16;
+    //Relative rounding error of double precision values
+    private static final double EPS = Math.ulp(1.0);
+    //Max number of attributes (in the scan order) copied for each training instance
+    private static final int SCAN_PREFIX = 128;
+    //Max number of test instances used to measure the recall of approximate search
+    private static final int RECALL_SAMPLES = 500;
     
-    //Training data
-    private ArrayList<KInstance> d;
+    //Attribute arrays of the training instances (the arrays in the dataset, not copies)
+    private double[][] rows;
+    //Labels for the training instances
+    private int[] labels;
+    //Index for neighbor search, or null to compare with all training instances
+    private NeighborIndex index;
+    //Attributes ordered by decreasing variance, used when an index is not used. Queries are
+    //copied in this order, so high variance attributes make distances exceed the distance
+    //to the K:th nearest neighbor early in the scan
+    private int[] attr_order;
+    //The first attributes in the scan order for each training instance (one instance per
+    //row). Most distances exceed the limit within these attributes, so the scan mostly
+    //reads consecutive values while only this part of the training data is copied
+    private Tensor2D prefix;
+    //Squared norms of the training instances, for L2 distances calculated as matrix products
+    private double[] norms;
+    //Largest squared norm of the training instances
+    private double max_norm;
+    //Share of the K nearest neighbors found by approximate search in the last
+    //evaluation, or -1 if not measured
+    private double recall = -1;
     //Internal test dataset
     private Dataset tdata;
     //Configuration settings
@@ -87,8 +84,13 @@ public class KNN extends Classifier
             o.appendText("Test data: " + test.getName());
         }
         
-        //Reset internal array
-        d = null;
+        //Reset internal arrays
+        rows = null;
+        labels = null;
+        index = null;
+        attr_order = null;
+        prefix = null;
+        norms = null;
         iterate();
     }
     
@@ -100,16 +102,59 @@ public class KNN extends Classifier
     @Override
     public double iterate()
     {
-        //Init internal data array (if not already done)
-        if (d == null)
+        //Init internal data arrays (if not already done)
+        if (rows == null)
         {
-            d = new ArrayList<>(data.size());
-            //Iterate over all training instances
-            for (Instance inst : data.data)
+            rows = new double[data.size()][];
+            labels = new int[data.size()];
+            for (int i = 0; i < labels.length; i++)
+            {
+                rows[i] = data.get(i).x.v;
+                labels[i] = data.get(i).label;
+            }
+            
+            //Build index for neighbor search
+            int type = settings.index;
+            if (type == KNNSettings.AUTO)
+            {
+                type = data.noInputs() <= KDTREE_MAX_INPUTS ? KNNSettings.KDTREE : KNNSettings.LINEAR;
+            }
+            if (type == KNNSettings.KDTREE)
+            {
+                index = new KDTree(data, settings.distance_measure);
+            }
+            if (type == KNNSettings.BALLTREE)
+            {
+                index = new BallTree(data, settings.distance_measure);
+            }
+            if (type == KNNSettings.HNSW)
+            {
+                index = new HNSW(data, settings.distance_measure, settings.hnsw_m, settings.hnsw_ef, settings.hnsw_ef_construction);
+            }
+            if (type == KNNSettings.LSH)
             {
-                //Create internal instance
-                KInstance ki = new KInstance(inst.x, inst.label);
-                d.add(ki);
+                index = new LSH(data, settings.distance_measure, settings.lsh_tables, settings.lsh_hashes, settings.lsh_width);
+            }
+            if (type == KNNSettings.PQ)
+            {
+                index = new PQ(data, settings.distance_measure, settings.pq_subspaces, settings.pq_shortlist);
+            }
+            
+            //Attribute order for the scan, and norms for batched L2 distances
+            if (index == null)
+            {
+                create_attr_order();
+                if (settings.distance_measure == KNNSettings.L2)
+                {
+                    int dim = data.noInputs();
+                    norms = new double[labels.length];
+                    max_norm = 0;
+                    for (int i = 0; i < labels.length; i++)
+                    {
+                        norms[i] = VectorOps.dot(rows[i], 0, rows[i], 0, dim);
+                        max_norm = Math.max(max_norm, norms[i]);
+                    }
+                }
             }
         }
         
@@ -118,6 +163,71 @@ public class KNN extends Classifier
         return 0;
     }
     
+    /**
+     * Orders the attributes by decreasing variance in the training dataset, and copies the
+     * first attributes in this order for each training instance.
+     */
+    private void create_attr_order()
+    {
+        int n = labels.length;
+        int dim = data.noInputs();
+        
+        //Variance of each attribute
+        double[] mean = new double[dim];
+        double[] var = new double[dim];
+        for (int i = 0; i < n; i++)
+        {
+            for (int a = 0; a < dim; a++)
+            {
+                mean[a] += rows[i][a] / n;
+            }
+        }
+        for (int i = 0; i < n; i++)
+        {
+            for (int a = 0; a < dim; a++)
+            {
+                double d = rows[i][a] - mean[a];
+                var[a] += d * d;
+            }
+        }
+        
+        //Order attributes by decreasing variance
+        attr_order = new int[dim];
+        for (int a = 0; a < dim; a++)
+        {
+            attr_order[a] = a;
+            var[a] = -var[a];
+        }
+        IndexSort.sort(attr_order, var, new int[dim]);
+        
+        //Copy the first attributes in the scan order (at most half of the attributes,
+        //rounded down to a multiple of four)
+        int p = Math.min(SCAN_PREFIX, dim / 8 * 4);
+        prefix = new Tensor2D(n, p);
+        for (int i = 0; i < n; i++)
+        {
+            for (int a = 0; a < p; a++)
+            {
+                prefix.v[i * p + a] = rows[i][attr_order[a]];
+            }
+        }
+    }
+    
+    /**
+     * Copies attributes in the scan order into an array.
+     * 
+     * @param v Attributes
+     * @param dst Destination array
+     * @param o Index of the first attribute in the destination array
+     */
+    private void permute(Tensor1D v, double[] dst, int o)
+    {
+        for (int a = 0; a < attr_order.length; a++)
+        {
+            dst[o + a] = v.v[attr_order[a]];
+        }
+    }
+    
     /**
      * Performs activation for the specified dataset.
      * 
@@ -139,38 +249,315 @@ public class KNN extends Classifier
     @Override
     public int classify(int i)
     {
-        //Get instance
-        Instance inst = tdata.get(i);
+        return classify(tdata.get(i).x);
+    }
+    
+    /**
+     * Classifies all instances in the dataset. Instances are classified in parallel, since
+     * all data used by a query is kept in buffers for that query only.
+     * 
+     * @param n Number of instances
+     * @return Predicted class values
+     */
+    @Override
+    public int[] classify_all(int n)
+    {
+        int[] pred = new int[n];
+        if (norms != null)
+        {
+            classify_l2(n, pred);
+            return pred;
+        }
+        
+        TensorExec.for_range(n, (long)n * labels.length * data.noInputs(), i -> {
+            pred[i] = classify(i);
+        });
         
-        //Iterate over the training data
-        //and calculate distances
-        if (settings.distance_measure == KNNSettings.L1)
+        recall = -1;
+        if (index != null && !index.exact())
         {
-            d.stream().parallel().forEach((ki) -> {
-                ki.dist = Tensor1D.L1_dist(inst.x, ki.x);
-            });
+            recall = recall(n);
         }
-        if (settings.distance_measure == KNNSettings.L2)
+        return pred;
+    }
+    
+    /**
+     * Measures the recall of approximate search, i.e. the share of the K nearest neighbors
+     * found by a linear scan that are also found by the index. The recall is measured on
+     * a sample of evenly spread test instances.
+     * 
+     * @param n Number of test instances
+     * @return Recall
+     */
+    private double recall(int n)
+    {
+        int samples = Math.min(n, RECALL_SAMPLES);
+        int k = Math.min(settings.K, labels.length);
+        int[] found = new int[samples];
+        TensorExec.for_range(samples, (long)samples * labels.length * data.noInputs(), s -> {
+            Tensor1D q = tdata.get((int)((long)s * n / samples)).x;
+            NeighborHeap approx = new NeighborHeap(k);
+            NeighborHeap exact = new NeighborHeap(k);
+            index.search(q.v, approx);
+            scan(q, exact);
+            for (int i = 0; i < exact.size(); i++)
+            {
+                for (int j = 0; j < approx.size(); j++)
+                {
+                    if (approx.index(j) == exact.index(i)) found[s]++;
+                }
+            }
+        });
+        
+        double cnt = 0;
+        for (int f : found)
         {
-            d.stream().parallel().forEach((ki) -> {
-                ki.dist = Tensor1D.L2_dist(inst.x, ki.x);
-            });
+            cnt += f;
         }
+        return cnt / ((double)samples * k);
+    }
+    
+    /**
+     * Appends the recall of approximate search to the log.
+     * 
+     * @param out Logger for log info
+     */
+    @Override
+    protected void evaluation_info(Logger out)
+    {
+        if (recall >= 0)
+        {
+            out.appendText("Neighbor recall (compared to linear search): " + df.format(recall * 100.0) + "%");
+        }
+    }
+    
+    /**
+     * Classifies all test instances using L2 distances. Squared distances are calculated
+     * as ||q||^2 + ||x||^2 - 2*q*x, where the products between a block of test instances
+     * and a block of training instances are calculated as one matrix product. Each block of
+     * training instances is copied once into a re-used 2D-tensor, and all blocks of test
+     * instances are compared with it. The K nearest neighbors found this way, plus a margin
+     * of extra candidates, are then ranked by distances calculated directly, so the vote
+     * uses the same distances as when classifying a single instance.
+     * <p>
+     * Cancellation in the matrix product distances is bounded by the rounding errors of
+     * the dot products, which sum to at most 2 * (dim + 4) * eps * (||q||^2 + ||x||^2).
+     * A training instance that is not a candidate is at least as far away as the
+     * farthest candidate, minus this error. If that is not farther than the K:th nearest
+     * neighbor after ranking, a true neighbor might have been missed and the neighbors
+     * of the test instance are instead found by comparing with all training instances.
+     * 
+     * @param n Number of test instances
+     * @param pred Predicted class values
+     */
+    private void classify_l2(int n, int[] pred)
+    {
+        int dim = data.noInputs();
+        int m = labels.length;
+        int k = Math.min(settings.K, m);
+        int c = Math.min(k + SHORTLIST_MARGIN, m);
         
-        //Sort list based on distance
-        d.sort((i1, i2) -> i1.compareTo(i2));
+        //Candidates and squared norms of the test instances
+        NeighborHeap[] heaps = new NeighborHeap[n];
+        double[] qnorms = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            double[] v = tdata.get(i).x.v;
+            qnorms[i] = VectorOps.dot(v, 0, v, 0, dim);
+            heaps[i] = new NeighborHeap(c);
+        }
+        
+        //Products between blocks of training and test instances
+        Tensor2D block = null;
+        Tensor2D q = null;
+        Tensor2D prod = null;
+        for (int t = 0; t < m; t += TRAIN_BLOCK)
+        {
+            int tb = Math.min(TRAIN_BLOCK, m - t);
+            block = copy_rows(data, t, tb, block);
+            for (int s = 0; s < n; s += QUERY_BLOCK)
+            {
+                int b = Math.min(QUERY_BLOCK, n - s);
+                q = copy_rows(tdata, s, b, q);
+                prod = Tensor2D.mul_transpose(q, block, prod, 0);
+                
+                final Tensor2D fprod = prod;
+                final int ft = t;
+                final int fs = s;
+                TensorExec.for_range(b, (long)b * tb, i -> {
+                    for (int j = 0; j < tb; j++)
+                    {
+                        double d = qnorms[fs + i] + norms[ft + j] - 2 * fprod.get(i, j);
+                        heaps[fs + i].offer(Math.max(d, 0), ft + j);
+                    }
+                });
+            }
+        }
         
+        //Rank the candidates by distances calculated directly and vote
+        TensorExec.for_range(n, (long)n * c * dim, i -> {
+            NeighborHeap heap = new NeighborHeap(k);
+            Tensor1D qi = tdata.get(i).x;
+            for (int j = 0; j < heaps[i].size(); j++)
+            {
+                int e = heaps[i].index(j);
+                heap.offer(Tensor1D.L2_dist(qi, data.get(e).x), e);
+            }
+            
+            //Fall back to comparing with all training instances if the error bound
+            //does not rule out a nearer instance outside the candidates
+            double err = 2 * (dim + 4) * EPS * (qnorms[i] + max_norm);
+            if (!(heaps[i].worst() - err > heap.worst() * (1 + EPS * dim)))
+            {
+                scan(qi, heap);
+            }
+            pred[i] = vote(heap);
+        });
+    }
+    
+    /**
+     * Copies the attributes of a range of instances into a 2D-tensor, one instance per row.
+     * 
+     * @param d The dataset
+     * @param start Index of the first instance
+     * @param n Number of instances
+     * @param t 2D-tensor to re-use, or null
+     * @return 2D-tensor with the attributes
+     */
+    private static Tensor2D copy_rows(Dataset d, int start, int n, Tensor2D t)
+    {
+        int dim = d.noInputs();
+        t = Tensor2D.reuse(t, n, dim);
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(d.get(start + i).x.v, 0, t.v, i * dim, dim);
+        }
+        return t;
+    }
+    
+    /**
+     * Classifies an attributes 1D-tensor.
+     * 
+     * @param q Attributes
+     * @return Predicted class value
+     */
+    private int classify(Tensor1D q)
+    {
+        NeighborHeap heap = new NeighborHeap(Math.min(settings.K, labels.length));
+        if (index != null)
+        {
+            //Search the index for the K nearest neighbors
+            index.search(q.v, heap);
+        }
+        else
+        {
+            scan(q, heap);
+        }
+        
+        return vote(heap);
+    }
+    
+    /**
+     * Finds the nearest neighbors by comparing the query with all training instances.
+     * 
+     * @param q Attributes
+     * @param heap Heap that holds the neighbors
+     */
+    private void scan(Tensor1D q, NeighborHeap heap)
+    {
+        int n = labels.length;
+        int dim = q.size();
+        
+        //Query in the scan order of the attributes
+        double[] qv = q.v;
+        if (attr_order != null)
+        {
+            qv = new double[dim];
+            permute(q, qv, 0);
+        }
+        final double[] fq = qv;
+        int p = attr_order != null ? prefix.columns() : 0;
+        
+        //Iterate over parts of the training data in parallel and keep the K nearest 
+        //neighbors in each part. Distances are only calculated until they exceed the 
+        //distance to the K:th nearest neighbor so far in the part.
+        int blocks = Math.min(n, TensorExec.getThreads() * 4);
+        NeighborHeap[] parts = new NeighborHeap[blocks];
+        TensorExec.for_range(blocks, (long)n * dim, b -> {
+            NeighborHeap part = new NeighborHeap(heap.capacity());
+            for (int k = (int)((long)b * n / blocks); k < (int)((long)(b + 1) * n / blocks); k++)
+            {
+                double[] v = rows[k];
+                double d = 0;
+                if (settings.distance_measure == KNNSettings.L1)
+                {
+                    d = attr_order != null ? VectorOps.abs_dist(fq, prefix.v, k * p, p, v, attr_order, part.worst())
+                                           : VectorOps.abs_dist(fq, 0, v, 0, dim, part.worst());
+                }
+                if (settings.distance_measure == KNNSettings.L2)
+                {
+                    d = attr_order != null ? VectorOps.sq_dist(fq, prefix.v, k * p, p, v, attr_order, part.worst())
+                                           : VectorOps.sq_dist(fq, 0, v, 0, dim, part.worst());
+                }
+                part.offer(d, k);
+            }
+            parts[b] = part;
+        });
+        
+        //Keep the K nearest neighbors of all parts
+        NeighborHeap best = new NeighborHeap(heap.capacity());
+        for (NeighborHeap part : parts)
+        {
+            for (int j = 0; j < part.size(); j++)
+            {
+                best.offer(part.dist(j), part.index(j));
+            }
+        }
+        
+        //Distances in the original attribute order, as used when voting
+        heap.clear();
+        for (int j = 0; j < best.size(); j++)
+        {
+            int k = best.index(j);
+            Tensor1D v = data.get(k).x;
+            double d = settings.distance_measure == KNNSettings.L1 ? Tensor1D.L1_dist(q, v) : Tensor1D.L2_dist(q, v);
+            heap.offer(d, k);
+        }
+    }
+    
+    /**
+     * Selects the label with most occurences among the nearest neighbors.
+     * 
+     * @param heap The nearest neighbors
+     * @return Predicted class value
+     */
+    private int vote(NeighborHeap heap)
+    {
         //Create result array with number of
         //occurences for each label, plus distances
         Tensor1D res = Tensor1D.zeros(noCategories);
         Tensor1D dist = Tensor1D.zeros(noCategories);
-        for (int j = 0; j < settings.K; j++)
+        
+        for (int j = 0; j < heap.size(); j++)
         {
-            int pred_y = d.get(j).label;
+            int pred_y = labels[heap.index(j)];
             res.set(pred_y, res.get(pred_y) + 1);
-            dist.set(pred_y, dist.get(pred_y) + d.get(j).dist);
+            dist.set(pred_y, dist.get(pred_y) + heap.dist(j));
         }
         
+        return vote(res, dist);
+    }
+    
+    /**
+     * Selects the label with most occurences among the nearest neighbors. If several labels
+     * have the same number of occurences, the label with lowest sum of distances is selected.
+     * 
+     * @param res Number of occurences for each label
+     * @param dist Sum of distances for each label
+     * @return Predicted class value
+     */
+    private int vote(Tensor1D res, Tensor1D dist)
+    {
         double bestNo = 0;
         double bestD = Double.MAX_VALUE;
         int bestY = -1;
@@ -38,6 +38,86 @@ public class KNNSettings
      */
     public int distance_measure = L2;
     
+    /**
+     * Neighbor search: select automatically based on the dataset.
+     */
+    public static final int AUTO = 0;
+    
+    /**
+     * Neighbor search: compare the query with all training instances.
+     */
+    public static final int LINEAR = 1;
+    
+    /**
+     * Neighbor search: KD-tree (exact, fast for datasets with few attributes).
+     */
+    public static final int KDTREE = 2;
+    
+    /**
+     * Neighbor search: ball tree (exact, prunes on datasets with many attributes).
+     */
+    public static final int BALLTREE = 3;
+    
+    /**
+     * Neighbor search: HNSW graph (approximate, fast for large datasets with many attributes).
+     */
+    public static final int HNSW = 4;
+    
+    /**
+     * Neighbor search: locality-sensitive hashing (approximate, fast to build).
+     */
+    public static final int LSH = 5;
+    
+    /**
+     * Neighbor search: product quantization (approximate, scans compressed codes).
+     */
+    public static final int PQ = 6;
+    
+    /**
+     * Neighbor search (AUTO, LINEAR, KDTREE, BALLTREE, HNSW, LSH or PQ) to use.
+     */
+    public int index = AUTO;
+    
+    /**
+     * Max number of links per node in the HNSW graph (twice as many on the bottom layer).
+     */
+    public int hnsw_m = 16;
+    
+    /**
+     * Size of the candidate list when searching the HNSW graph. Higher values give higher recall.
+     */
+    public int hnsw_ef = 50;
+    
+    /**
+     * Size of the candidate list when building the HNSW graph.
+     */
+    public int hnsw_ef_construction = 100;
+    
+    /**
+     * Number of hash tables for LSH. More tables give higher recall.
+     */
+    public int lsh_tables = 20;
+    
+    /**
+     * Number of hash functions per LSH table. More functions give fewer candidates.
+     */
+    public int lsh_hashes = 12;
+    
+    /**
+     * Bucket width for LSH, relative to the median difference between projections of training instances.
+     */
+    public double lsh_width = 4;
+    
+    /**
+     * Number of subspaces for PQ, i.e. bytes per compressed training instance.
+     */
+    public int pq_subspaces = 16;
+    
+    /**
+     * Number of training instances that PQ ranks by exact distances.
+     */
+    public int pq_shortlist = 50;
+    
     /**
      * Sets if training dataset shall be shuffled or not.
      */
@@ -50,6 +130,15 @@ public class KNNSettings
     {
         K = 3;
         distance_measure = L2;
+        index = AUTO;
+        hnsw_m = 16;
+        hnsw_ef = 50;
+        hnsw_ef_construction = 100;
+        lsh_tables = 20;
+        lsh_hashes = 12;
+        lsh_width = 4;
+        pq_subspaces = 16;
+        pq_shortlist = 50;
         use_normalization = false;
         normalization_bounds = new int[2];
         shuffle = true;
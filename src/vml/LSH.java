@@ -0,0 +1,224 @@
+package vml;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Locality-sensitive hashing (LSH) index for approximate nearest neighbor search. Each hash
+ * function projects an instance on a random direction and splits the projection into
+ * buckets of a fixed width, h(x) = floor((a*x + b) / w). The directions are drawn from a
+ * p-stable distribution, Gaussian for L2 and Cauchy for L1, so the difference between the
+ * projections of two instances is proportional to their distance. Each table combines
+ * several hash functions, and instances sharing a bucket with the query in any table are
+ * candidates that are ranked by their exact distance. More tables give higher recall, and
+ * more hash functions per table or a smaller width give fewer candidates.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class LSH extends NeighborIndex
+{
+    //Seed for the random projections, so the tables are the same between runs
+    private static final long SEED = 42;
+    //Number of instance pairs used to estimate the spread of the projections
+    private static final int SCALE_SAMPLES = 1000;
+
+    //Attributes, instance by instance
+    private final double[] pts;
+    //Number of tables and hash functions per table
+    private final int tables;
+    private final int hashes;
+    //Bucket width
+    private final double w;
+    //Projection directions (tables * hashes directions) and offsets
+    private final double[] a;
+    private final double[] b;
+    //Bucket keys for each table, sorted, and the instance for each key
+    private final long[][] keys;
+    private final int[][] ids;
+
+    /**
+     * Builds an LSH index for a training dataset.
+     *
+     * @param data Training dataset
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2)
+     * @param tables Number of hash tables
+     * @param hashes Number of hash functions per table
+     * @param width Bucket width, relative to the median projection difference between training instances
+     */
+    LSH(Dataset data, int measure, int tables, int hashes, double width)
+    {
+        super(measure, data.noInputs());
+
+        this.tables = Math.max(1, tables);
+        this.hashes = Math.max(1, hashes);
+        int n = data.size();
+        pts = flatten(data);
+
+        //Random projections from a p-stable distribution
+        Random rnd = new Random(SEED);
+        int funcs = this.tables * this.hashes;
+        a = new double[funcs * dim];
+        for (int i = 0; i < a.length; i++)
+        {
+            if (measure == KNNSettings.L1)
+            {
+                //Cauchy distribution
+                a[i] = Math.tan(Math.PI * (rnd.nextDouble() - 0.5));
+            }
+            else
+            {
+                a[i] = rnd.nextGaussian();
+            }
+        }
+        w = Math.max(width * projection_spread(rnd), Double.MIN_NORMAL);
+        b = new double[funcs];
+        for (int i = 0; i < funcs; i++)
+        {
+            b[i] = rnd.nextDouble() * w;
+        }
+
+        //Hash all instances and sort them by key in each table
+        keys = new long[this.tables][n];
+        ids = new int[this.tables][];
+        for (int t = 0; t < this.tables; t++)
+        {
+            long[] k = keys[t];
+            for (int i = 0; i < n; i++)
+            {
+                k[i] = key(t, pts, i * dim);
+            }
+            ids[t] = sort(k);
+        }
+    }
+
+    /**
+     * Estimates the spread of the projections as the median difference between the
+     * projections of random pairs of training instances. The bucket width is relative to
+     * this, so the same width gives similar bucket sizes for L1 and L2.
+     *
+     * @param rnd Randomizer
+     * @return Median projection difference
+     */
+    private double projection_spread(Random rnd)
+    {
+        int n = pts.length / Math.max(1, dim);
+        if (n < 2) return 1;
+        int funcs = a.length / dim;
+        double[] diff = new double[SCALE_SAMPLES];
+        for (int s = 0; s < SCALE_SAMPLES; s++)
+        {
+            int f = rnd.nextInt(funcs);
+            double pi = VectorOps.dot(a, f * dim, pts, rnd.nextInt(n) * dim, dim);
+            double pj = VectorOps.dot(a, f * dim, pts, rnd.nextInt(n) * dim, dim);
+            diff[s] = Math.abs(pi - pj);
+        }
+        Arrays.sort(diff);
+        return diff[SCALE_SAMPLES / 2];
+    }
+
+    /**
+     * Calculates the bucket key of an instance in a table.
+     *
+     * @param t Table
+     * @param v Values array
+     * @param o Index of the first attribute
+     * @return Bucket key
+     */
+    private long key(int t, double[] v, int o)
+    {
+        long k = 1;
+        for (int h = 0; h < hashes; h++)
+        {
+            int f = t * hashes + h;
+            double p = VectorOps.dot(a, f * dim, v, o, dim);
+            k = k * 1000003 + (long)Math.floor((p + b[f]) / w);
+        }
+        return k;
+    }
+
+    /**
+     * Sorts keys in ascending order, and returns the original position of each key.
+     *
+     * @param k Keys
+     * @return Original positions
+     */
+    private static int[] sort(long[] k)
+    {
+        int n = k.length;
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            idx[i] = i;
+        }
+        IndexSort.sort(idx, k, new int[n]);
+
+        long[] sk = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            sk[i] = k[idx[i]];
+        }
+        System.arraycopy(sk, 0, k, 0, n);
+        return idx;
+    }
+
+    /**
+     * Finds the first position with a key equal to or larger than the specified key.
+     *
+     * @param k Sorted keys
+     * @param key The key
+     * @return Position
+     */
+    private static int lower_bound(long[] k, long key)
+    {
+        int lo = 0;
+        int hi = k.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (k[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    @Override
+    boolean exact()
+    {
+        return false;
+    }
+
+    @Override
+    void search(double[] q, NeighborHeap heap)
+    {
+        heap.clear();
+        int n = ids.length > 0 ? ids[0].length : 0;
+        VisitMarks v = visit_marks(n);
+        int[] seen = v.marks;
+        int mark = v.next();
+        int cnt = 0;
+
+        //Rank the instances in the buckets of the query
+        for (int t = 0; t < tables; t++)
+        {
+            long key = key(t, q, 0);
+            long[] k = keys[t];
+            for (int p = lower_bound(k, key); p < k.length && k[p] == key; p++)
+            {
+                int i = ids[t][p];
+                if (seen[i] == mark) continue;
+                seen[i] = mark;
+                cnt++;
+                heap.offer(dist(q, 0, pts, i * dim, heap.worst()), i);
+            }
+        }
+
+        //Too few candidates, so compare with all instances
+        if (cnt < heap.capacity())
+        {
+            for (int i = 0; i < n; i++)
+            {
+                if (seen[i] != mark) heap.offer(dist(q, 0, pts, i * dim, heap.worst()), i);
+            }
+        }
+    }
+}
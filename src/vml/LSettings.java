@@ -58,6 +58,11 @@ public class LSettings
      */
     public boolean shuffle = true;
     
+    /**
+     * Sets if the order of training instances shall be shuffled each epoch in batch training.
+     */
+    public boolean shuffle_epochs = false;
+    
     /**
      * Creates default settings.
      */
@@ -73,5 +78,6 @@ public class LSettings
         epochs = 200;
         batch_size = 0;
         shuffle = true;
+        shuffle_epochs = false;
     }
 }
@@ -15,15 +15,17 @@ public class Linear extends Classifier
     protected Tensor2D w;
     //Bias tensor
     protected Tensor1D b;
-    //Gradients for gradient descent optimization
+    //Gradients for gradient descent optimization. The tensors are re-used
+    //between batches and also hold the momentum from previous gradients
     private Tensor2D dW;
     private Tensor1D dB;
     //Training dataset
     private Tensor2D X;
     //Class values tensor
     private Tensor1D y;
-    //Scores tensor = X*W+b
-    private Tensor2D scores;
+    //Probabilities tensor = softmax(W*X+b). The gradients of the scores are calculated
+    //in place in this tensor, so it is only valid until the next backward pass.
+    private Tensor2D probs;
     //L2 regularization
     private double RW;
     //Configuration settings
@@ -62,7 +64,8 @@ public class Linear extends Classifier
         
         //Settings
         this.settings = settings;
-        batch_size = settings.batch_size;        
+        batch_size = settings.batch_size;
+        shuffle_epochs = settings.shuffle_epochs;
     }
     
     /**
@@ -156,9 +159,9 @@ public class Linear extends Classifier
             //Train each batch
             for (int i = 0; i < no_batches; i++)
             {
-                Dataset batch = getNextBatch();
-                X = batch.input_tensor();
-                y = batch.label_tensor();
+                next_batch();
+                X = batch_input();
+                y = batch_labels();
                 
                 //Forward pass (activation)
                 activation();
@@ -179,8 +182,8 @@ public class Linear extends Classifier
         else
         {
             //Train whole dataset
-            X = data.input_tensor();
-            y = data.label_tensor();
+            X = data_input();
+            y = data_labels();
             
             //Forward pass (activation)
             activation();
@@ -223,7 +226,7 @@ public class Linear extends Classifier
     public void activation(Dataset test)
     {
         //Activation
-        scores = Tensor2D.activation(w, test.input_tensor(), b);
+        probs = Tensor2D.activation_softmax(w, test.input_tensor(), b, probs);
     }
     
     /**
@@ -231,8 +234,8 @@ public class Linear extends Classifier
      */
     private void activation()
     {
-        //Activation
-        scores = Tensor2D.activation(w, X, b);
+        //Activation and Softmax, re-using the probabilities tensor
+        probs = Tensor2D.activation_softmax(w, X, b, probs);
     }
     
     /**
@@ -244,7 +247,7 @@ public class Linear extends Classifier
     @Override
     public int classify(int i)
     {
-        int pred_class = scores.argmax(i);
+        int pred_class = probs.argmax(i);
         return pred_class;
     }
     
@@ -262,44 +265,17 @@ public class Linear extends Classifier
         int num_train = X.columns();
         double loss = 0;
         
-        //Calculate exponentials
-        //Tensor2D logprobs = scores.exp();
-        
-        //To avoid numerical instability
-        Tensor2D logprobs = scores.shift_columns();
-        logprobs.exp();
-        
-        //Normalize
-        logprobs.normalize();
-        
-        //Calculate cross-entropy loss 1D-tensor
-        Tensor1D loss_vec = logprobs.calc_loss(y);
-        
-        //Average loss
-        loss = loss_vec.sum() / num_train;
+        //Softmax probabilities are calculated in the forward pass
+        //Average cross-entropy loss
+        loss = probs.sum_loss(y) / num_train;
         //Regularization loss
         loss += RW;
         
-        //Momentum
-        Tensor2D oldDW = null;
-        Tensor1D oldDB = null;
-        if (dW != null && settings.momentum > 0.0)
-        {
-            oldDW = dW.copy();
-            oldDB = dB.copy();
-        }
-        
-        //Gradients
-        Tensor2D dscores = logprobs.calc_dscores(y);
-        dW = Tensor2D.mul_transpose(dscores, X);
-        dB = dscores.sum_rows();
-        
-        //Momentum
-        if (oldDW != null && settings.momentum > 0.0)
-        {
-            dW.add(oldDW, settings.momentum);
-            dB.add(oldDB, settings.momentum);
-        }
+        //Gradients, with momentum from the previous gradients added in place.
+        //The gradients of the scores overwrite the probabilities (dscores is probs).
+        Tensor2D dscores = probs.calc_dscores(y);
+        dW = Tensor2D.mul_transpose(dscores, X, dW, settings.momentum);
+        dB = dscores.sum_rows(dB, settings.momentum);
         
         //Add regularization to gradients
         //The weight tensor scaled by Lambda*0.5 is added
@@ -322,21 +298,9 @@ public class Linear extends Classifier
         int num_train = X.columns();
         double loss = 0;
         
-        //Calculate exponentials
-        //Tensor2D logprobs = scores.exp();
-        
-        //To avoid numerical instability
-        Tensor2D logprobs = scores.shift_columns();
-        logprobs.exp();
-        
-        //Normalize
-        logprobs.normalize();
-        
-        //Calculate cross-entropy loss 1D-tensor
-        Tensor1D loss_vec = logprobs.calc_loss(y);
-        
-        //Average loss
-        loss = loss_vec.sum() / num_train;
+        //Softmax probabilities are calculated in the forward pass
+        //Average cross-entropy loss
+        loss = probs.sum_loss(y) / num_train;
         
         return loss;
     }
@@ -360,11 +324,15 @@ public class Linear extends Classifier
         int num_train = X.columns();
         double loss = 0;
         
+        //The probabilities tensor holds Softmax output, but the SVM margins
+        //shall be calculated from the raw (pre-Softmax) scores
+        Tensor2D raw = Tensor2D.activation(w, X, b);
+        
         //Iterate over all training examples
         for (int i = 0; i < num_train; i++)
         {
             //Get tensors
-            Tensor1D score = scores.getColumn(i);
+            Tensor1D score = raw.getColumn(i);
             Tensor1D xi = X.getColumn(i);
              
             //Correct label (class value)
@@ -0,0 +1,316 @@
+package vml;
+
+import java.util.Arrays;
+
+/**
+ * Cache-blocked matrix multiplication engine used by the 2D-tensor products.
+ * The right operand is processed in blocks of KC x NC values that are packed into panels of
+ * NR columns, and the left operand is packed into panels of MR rows. Each MR x NR tile of the
+ * result is then accumulated in local variables by a micro-kernel that reads both panels
+ * sequentially. Transposed operands are handled while packing, so all products share the
+ * same micro-kernel.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class MatMul
+{
+    //Size of the result tile kept in local variables
+    private static final int MR = 4;
+    private static final int NR = 4;
+    //Block of the right operand (KC x NC) sized to stay in L2 cache, while
+    //a packed panel of the left operand (MR x KC) stays in L1 cache
+    private static final int KC = 128;
+    private static final int NC = 512;
+    //Below this number of multiply-adds, packing costs more than it saves
+    private static final long MIN_BLOCKED = 32 * 32 * 32;
+
+    //Packing buffers, one per thread. A panel of the left operand is packed and used within
+    //one loop body, so its buffer is never shared. A block of the right operand is used by
+    //all loop bodies of a step, and a pool worker can run a loop body of another gemm while it
+    //waits for them, so a gemm takes the buffer from its thread while running. A gemm started
+    //while the buffer is taken uses a new buffer.
+    private static final ThreadLocal<double[]> a_pack = ThreadLocal.withInitial(() -> new double[MR * KC]);
+    private static final ThreadLocal<double[]> b_pack = ThreadLocal.withInitial(() -> new double[KC * NC]);
+
+    /**
+     * Calculates c = op(a) * op(b) + beta * c, where op(x) is x or the transpose of x.
+     *
+     * @param a Left operand
+     * @param ta True if the left operand shall be transposed
+     * @param b Right operand
+     * @param tb True if the right operand shall be transposed
+     * @param c Result 2D-tensor
+     * @param beta Scale of the current values in the result (0 to overwrite them)
+     */
+    static void gemm(Tensor2D a, boolean ta, Tensor2D b, boolean tb, Tensor2D c, double beta)
+    {
+        gemm(a, ta, b, tb, c, beta, null, false);
+    }
+
+    /**
+     * Calculates c = op(a) * op(b) + beta * c, where op(x) is x or the transpose of x, and
+     * optionally adds a bias to each row and applies ReLU. The bias and ReLU are applied to each
+     * block of the result directly after its last multiplication step, while it is still in cache.
+     *
+     * @param a Left operand
+     * @param ta True if the left operand shall be transposed
+     * @param b Right operand
+     * @param tb True if the right operand shall be transposed
+     * @param c Result 2D-tensor
+     * @param beta Scale of the current values in the result (0 to overwrite them)
+     * @param bias Bias 1D-tensor added to each row of the result, or null for no bias
+     * @param relu True if ReLU (max(0, v)) shall be applied to the result
+     */
+    static void gemm(Tensor2D a, boolean ta, Tensor2D b, boolean tb, Tensor2D c, double beta, Tensor1D bias, boolean relu)
+    {
+        int m = c.rows();
+        int n = c.columns();
+        int k = ta ? a.rows() : a.columns();
+
+        //Scale (or clear) the current result values
+        scale(c, beta);
+
+        if ((long)m * n * k < MIN_BLOCKED)
+        {
+            naive(a, ta, b, tb, c, m, n, k);
+            epilogue(c, 0, m, 0, n, bias, relu);
+            return;
+        }
+
+        //Strides for walking op(a) along rows (i) and along the shared dimension (p)
+        int a_i = ta ? 1 : a.stride();
+        int a_p = ta ? a.stride() : 1;
+        //Strides for walking op(b) along the shared dimension (p) and along columns (j)
+        int b_p = tb ? 1 : b.stride();
+        int b_j = tb ? b.stride() : 1;
+
+        int panels = (m + MR - 1) / MR;
+        double[] taken = b_pack.get();
+        double[] bp = taken != null ? taken : new double[KC * NC];
+        b_pack.set(null);
+
+        for (int jj = 0; jj < n; jj += NC)
+        {
+            int nc = Math.min(NC, n - jj);
+            for (int pp = 0; pp < k; pp += KC)
+            {
+                int kc = Math.min(KC, k - pp);
+                boolean last = pp + kc >= k;
+
+                //Pack the block of the right operand into column panels
+                pack(b.v, b.offset() + pp * b_p + jj * b_j, b_p, b_j, kc, nc, NR, bp);
+
+                //Multiply each row panel of the left operand with the packed block
+                final int fjj = jj;
+                final int fpp = pp;
+                TensorExec.for_range(panels, (long)m * nc * kc, ip -> {
+                    int i0 = ip * MR;
+                    int mr = Math.min(MR, m - i0);
+                    double[] ap = a_pack.get();
+                    pack(a.v, a.offset() + i0 * a_i + fpp * a_p, a_p, a_i, kc, mr, MR, ap);
+
+                    for (int j0 = 0; j0 < nc; j0 += NR)
+                    {
+                        int nr = Math.min(NR, nc - j0);
+                        kernel(ap, bp, j0 * kc, kc, c, i0, fjj + j0, mr, nr);
+                    }
+                    
+                    //The tiles in this panel are done after the last step
+                    if (last)
+                    {
+                        epilogue(c, i0, mr, fjj, nc, bias, relu);
+                    }
+                });
+            }
+        }
+        
+        //Give the buffer back to the thread
+        b_pack.set(bp);
+    }
+
+    /**
+     * Packs a kc x w block of an operand into panels of width (columns) pw, where each panel
+     * is stored with the pw values for one step along the shared dimension next to each other.
+     * Panels at the edge are padded with zeros.
+     *
+     * @param v Values array
+     * @param start Index of the first value in the block
+     * @param sp Stride along the shared dimension
+     * @param sw Stride along the panel width
+     * @param kc Length of the shared dimension in the block
+     * @param w Width of the block
+     * @param pw Width of a panel
+     * @param dst Destination buffer
+     */
+    private static void pack(double[] v, int start, int sp, int sw, int kc, int w, int pw, double[] dst)
+    {
+        int o = 0;
+        for (int w0 = 0; w0 < w; w0 += pw)
+        {
+            int cw = Math.min(pw, w - w0);
+            for (int p = 0; p < kc; p++)
+            {
+                int si = start + p * sp + w0 * sw;
+                for (int t = 0; t < cw; t++)
+                {
+                    dst[o + t] = v[si + t * sw];
+                }
+                for (int t = cw; t < pw; t++)
+                {
+                    dst[o + t] = 0;
+                }
+                o += pw;
+            }
+        }
+    }
+
+    /**
+     * Micro-kernel that multiplies a packed MR x kc panel with a packed kc x NR panel and adds
+     * the result to a tile in the result 2D-tensor.
+     *
+     * @param ap Packed left operand panel
+     * @param bp Packed right operand block
+     * @param bo Start of the right operand panel in the packed block
+     * @param kc Length of the shared dimension
+     * @param c Result 2D-tensor
+     * @param i0 First row of the tile
+     * @param j0 First column of the tile
+     * @param mr Number of valid rows in the tile
+     * @param nr Number of valid columns in the tile
+     */
+    private static void kernel(double[] ap, double[] bp, int bo, int kc, Tensor2D c, int i0, int j0, int mr, int nr)
+    {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        int ao = 0;
+        int end = bo + kc * NR;
+        for (; bo < end; bo += NR, ao += MR)
+        {
+            double a0 = ap[ao];
+            double a1 = ap[ao + 1];
+            double a2 = ap[ao + 2];
+            double a3 = ap[ao + 3];
+            double b0 = bp[bo];
+            double b1 = bp[bo + 1];
+            double b2 = bp[bo + 2];
+            double b3 = bp[bo + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+        }
+
+        double[] v = c.v;
+        int ci = c.index(i0, j0);
+        int cs = c.stride();
+        if (mr == MR && nr == NR)
+        {
+            //Full tile
+            v[ci] += c00; v[ci + 1] += c01; v[ci + 2] += c02; v[ci + 3] += c03;
+            ci += cs;
+            v[ci] += c10; v[ci + 1] += c11; v[ci + 2] += c12; v[ci + 3] += c13;
+            ci += cs;
+            v[ci] += c20; v[ci + 1] += c21; v[ci + 2] += c22; v[ci + 3] += c23;
+            ci += cs;
+            v[ci] += c30; v[ci + 1] += c31; v[ci + 2] += c32; v[ci + 3] += c33;
+        }
+        else
+        {
+            //Edge tile: only write the valid part
+            double[] t = {c00, c01, c02, c03, c10, c11, c12, c13, c20, c21, c22, c23, c30, c31, c32, c33};
+            for (int r = 0; r < mr; r++)
+            {
+                for (int j = 0; j < nr; j++)
+                {
+                    v[ci + r * cs + j] += t[r * NR + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds bias and applies ReLU to a block of the result.
+     *
+     * @param c Result 2D-tensor
+     * @param i0 First row of the block
+     * @param mr Number of rows in the block
+     * @param j0 First column of the block
+     * @param nc Number of columns in the block
+     * @param bias Bias 1D-tensor, or null for no bias
+     * @param relu True if ReLU shall be applied
+     */
+    private static void epilogue(Tensor2D c, int i0, int mr, int j0, int nc, Tensor1D bias, boolean relu)
+    {
+        if (bias == null && !relu) return;
+
+        for (int r = i0; r < i0 + mr; r++)
+        {
+            int ci = c.index(r, j0);
+            double br = bias != null ? bias.v[r] : 0;
+            for (int j = ci; j < ci + nc; j++)
+            {
+                double val = c.v[j] + br;
+                c.v[j] = relu ? Math.max(val, 0) : val;
+            }
+        }
+    }
+
+    /**
+     * Plain triple loop used for small products.
+     */
+    private static void naive(Tensor2D a, boolean ta, Tensor2D b, boolean tb, Tensor2D c, int m, int n, int k)
+    {
+        TensorExec.for_range(m, (long)m * n * k, i -> {
+            int ci = c.index(i, 0);
+            for (int p = 0; p < k; p++)
+            {
+                double av = ta ? a.v[a.index(p, i)] : a.v[a.index(i, p)];
+                if (tb)
+                {
+                    for (int j = 0; j < n; j++)
+                    {
+                        c.v[ci + j] += av * b.v[b.index(j, p)];
+                    }
+                }
+                else
+                {
+                    int bi = b.index(p, 0);
+                    for (int j = 0; j < n; j++)
+                    {
+                        c.v[ci + j] += av * b.v[bi + j];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Scales all values in a 2D-tensor.
+     *
+     * @param c The 2D-tensor
+     * @param beta Scale (0 clears the values)
+     */
+    private static void scale(Tensor2D c, double beta)
+    {
+        if (beta == 1.0) return;
+
+        for (int r = 0; r < c.rows(); r++)
+        {
+            int ci = c.index(r, 0);
+            if (beta == 0.0)
+            {
+                Arrays.fill(c.v, ci, ci + c.columns(), 0);
+            }
+            else
+            {
+                for (int j = 0; j < c.columns(); j++)
+                {
+                    c.v[ci + j] *= beta;
+                }
+            }
+        }
+    }
+}
@@ -73,16 +73,17 @@ public class Metrics
         //Calculate accuracy and Confusion Tensor2D
         correct = 0;
         cm = Tensor2D.zeros(data.noCategories(), data.noCategories());
+        int[] pred = cl.classify_all(data.size());
         for (int i = 0; i < data.size(); i++)
         {
             //Accuracy
-            int pred_class = cl.classify(i);
+            int pred_class = pred[i];
             if (pred_class == data.get(i).label)
             {
                 correct++;
             }
             //Confusion Tensor2D
-            cm.v[data.get(i).label][pred_class]++;
+            cm.add(data.get(i).label, pred_class, 1);
         }       
     }
     
@@ -96,7 +97,7 @@ public class Metrics
         for (int r = 0; r < cm.rows(); r++)
         {
             //Calculate scores
-            double tp = cm.v[r][r];
+            double tp = cm.get(r, r);
             double tpfp = cm.sum_row(r);
             double tpfn = cm.sum_col(r);
             double recall = 0;
@@ -107,19 +108,19 @@ public class Metrics
             if ((precision + recall) > 0) f = 2.0 * precision * recall / (precision + recall);
             
             //Insert into matrix
-            pr.v[r][precision_i] = precision;
-            pr.v[r][recall_i] = recall;
-            pr.v[r][f_i] = f;
+            pr.set(r, precision_i, precision);
+            pr.set(r, recall_i, recall);
+            pr.set(r, f_i, f);
             
             //Average scores
-            pr.v[cm.rows()][precision_i] += precision;
-            pr.v[cm.rows()][recall_i] += recall;
-            pr.v[cm.rows()][f_i] += f;
+            pr.add(cm.rows(), precision_i, precision);
+            pr.add(cm.rows(), recall_i, recall);
+            pr.add(cm.rows(), f_i, f);
         }
         //Average scores
-        pr.v[cm.rows()][precision_i] /= cm.rows();
-        pr.v[cm.rows()][recall_i] /= cm.rows();
-        pr.v[cm.rows()][f_i] /= cm.rows();
+        pr.set(cm.rows(), precision_i, pr.get(cm.rows(), precision_i) / cm.rows());
+        pr.set(cm.rows(), recall_i, pr.get(cm.rows(), recall_i) / cm.rows());
+        pr.set(cm.rows(), f_i, pr.get(cm.rows(), f_i) / cm.rows());
     }
     
     /**
@@ -135,9 +136,9 @@ public class Metrics
             {
                 if (r == c) 
                 {
-                    n_ok += cm.v[r][c];
+                    n_ok += cm.get(r, c);
                 }
-                n_tot += cm.v[r][c];
+                n_tot += cm.get(r, c);
             }
         }
         
@@ -182,7 +183,7 @@ public class Metrics
      */
     public double getPrecision(int r)
     {
-        return pr.v[r][precision_i];
+        return pr.get(r, precision_i);
     }
     
     /**
@@ -193,7 +194,7 @@ public class Metrics
      */
     public double getRecall(int r)
     {
-        return pr.v[r][recall_i];
+        return pr.get(r, recall_i);
     }
     
     /**
@@ -204,7 +205,7 @@ public class Metrics
      */
     public double getFscore(int r)
     {
-        return pr.v[r][f_i];
+        return pr.get(r, f_i);
     }
     
     /**
@@ -214,7 +215,7 @@ public class Metrics
      */
     public double getAvgPrecision()
     {
-        return pr.v[pr.rows() - 1][precision_i];
+        return pr.get(pr.rows() - 1, precision_i);
     }
     
     /**
@@ -224,7 +225,7 @@ public class Metrics
      */
     public double getAvgRecall()
     {
-        return pr.v[pr.rows() - 1][recall_i];
+        return pr.get(pr.rows() - 1, recall_i);
     }
     
     /**
@@ -234,7 +235,7 @@ public class Metrics
      */
     public double getAvgFscore()
     {
-        return pr.v[pr.rows() - 1][f_i];
+        return pr.get(pr.rows() - 1, f_i);
     }
     
     /**
@@ -283,7 +284,7 @@ public class Metrics
             //Values for each label
             for (int c = 0; c < cm.columns(); c++)
             {
-                str += "  " + Logger.format_spaces((int)cm.v[r][c] + "", strlen);
+                str += "  " + Logger.format_spaces((int)cm.get(r, c) + "", strlen);
             }
             //Label string
             str += "  -> " + data.getCategoryLabel(r);
@@ -50,6 +50,7 @@ public class NN extends Classifier
         //Settings
         this.settings = settings;
         batch_size = settings.batch_size;
+        shuffle_epochs = settings.shuffle_epochs;
         
         //Initalises layers
         init();
@@ -154,9 +155,9 @@ public class NN extends Classifier
             //Train each batch
             for (int i = 0; i < no_batches; i++)
             {
-                Dataset batch = getNextBatch();
-                X = batch.input_tensor();
-                y = batch.label_tensor();
+                next_batch();
+                X = batch_input();
+                y = batch_labels();
                 
                 forward();
                 
@@ -181,8 +182,8 @@ public class NN extends Classifier
         else
         {
             //Train whole dataset
-            X = data.input_tensor();
-            y = data.label_tensor();
+            X = data_input();
+            y = data_labels();
             
             forward();
             
@@ -229,7 +230,7 @@ public class NN extends Classifier
     @Override
     public int classify(int i)
     {
-        int pred_class = out.scores.argmax(i);
+        int pred_class = out.probs.argmax(i);
         return pred_class;
     }
     
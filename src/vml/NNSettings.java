@@ -68,6 +68,11 @@ public class NNSettings
      */
     public boolean shuffle = true;
     
+    /**
+     * Sets if the order of training instances shall be shuffled each epoch in batch training.
+     */
+    public boolean shuffle_epochs = false;
+    
     /**
      * Creates default settings.
      */
@@ -85,5 +90,6 @@ public class NNSettings
         epochs = 1000;
         batch_size = 0;
         shuffle = true;
+        shuffle_epochs = false;
     }
 }
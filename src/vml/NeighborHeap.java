@@ -0,0 +1,145 @@
+package vml;
+
+/**
+ * Bounded max-heap that keeps the K nearest neighbors found so far in a search. Neighbors
+ * are ordered by distance and then by training instance index, so equal distances are
+ * resolved the same way as a stable sort of the training data by distance. Distances and
+ * indexes are stored in primitive arrays, so no objects are created during a search.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class NeighborHeap
+{
+    //Distances and training instance indexes, with the farthest neighbor at position 0
+    private final double[] dist;
+    private final int[] index;
+    //Number of neighbors in the heap
+    private int size;
+
+    /**
+     * Creates a new heap.
+     *
+     * @param k Number of neighbors to keep
+     */
+    NeighborHeap(int k)
+    {
+        dist = new double[k];
+        index = new int[k];
+    }
+
+    /**
+     * Removes all neighbors from the heap.
+     */
+    void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Returns the number of neighbors in the heap.
+     *
+     * @return Number of neighbors
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the largest number of neighbors the heap can hold.
+     *
+     * @return Number of neighbors to keep
+     */
+    int capacity()
+    {
+        return dist.length;
+    }
+
+    /**
+     * Returns the distance a neighbor must be within to be added to the heap, which is
+     * the distance to the farthest neighbor when the heap is full.
+     *
+     * @return Distance to the farthest neighbor, or infinity if the heap is not full
+     */
+    double worst()
+    {
+        return size < dist.length ? Double.POSITIVE_INFINITY : dist[0];
+    }
+
+    /**
+     * Adds a neighbor if it is nearer than the farthest neighbor in the heap, or if
+     * the heap is not full.
+     *
+     * @param d Distance to the neighbor
+     * @param i Training instance index of the neighbor
+     * @return True if the neighbor was added
+     */
+    boolean offer(double d, int i)
+    {
+        if (size < dist.length)
+        {
+            //Add last and move up
+            int c = size++;
+            while (c > 0)
+            {
+                int p = (c - 1) >> 1;
+                if (!after(d, i, dist[p], index[p])) break;
+                dist[c] = dist[p];
+                index[c] = index[p];
+                c = p;
+            }
+            dist[c] = d;
+            index[c] = i;
+            return true;
+        }
+
+        if (!after(dist[0], index[0], d, i)) return false;
+
+        //Replace the farthest neighbor and move down
+        int p = 0;
+        while (true)
+        {
+            int c = 2 * p + 1;
+            if (c >= size) break;
+            if (c + 1 < size && after(dist[c + 1], index[c + 1], dist[c], index[c])) c++;
+            if (!after(dist[c], index[c], d, i)) break;
+            dist[p] = dist[c];
+            index[p] = index[c];
+            p = c;
+        }
+        dist[p] = d;
+        index[p] = i;
+        return true;
+    }
+
+    /**
+     * Returns the distance to a neighbor in the heap. Neighbors are not sorted.
+     *
+     * @param n Position in the heap
+     * @return Distance
+     */
+    double dist(int n)
+    {
+        return dist[n];
+    }
+
+    /**
+     * Returns the training instance index of a neighbor in the heap. Neighbors are not sorted.
+     *
+     * @param n Position in the heap
+     * @return Training instance index
+     */
+    int index(int n)
+    {
+        return index[n];
+    }
+
+    /**
+     * Checks if neighbor a comes after neighbor b, i.e. is farther away or at the same
+     * distance with a higher index.
+     */
+    private static boolean after(double da, int ia, double db, int ib)
+    {
+        return da > db || (da == db && ia > ib);
+    }
+}
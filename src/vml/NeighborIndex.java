@@ -0,0 +1,137 @@
+package vml;
+
+/**
+ * Base class for search structures that find the nearest training instances to a query
+ * for the k-Nearest Neighbor classifier. L2 distances are squared, as in Tensor1D.L2_dist.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+abstract class NeighborIndex
+{
+    //Distance measure (KNNSettings.L1 or KNNSettings.L2)
+    protected final int measure;
+    //Number of attributes
+    protected final int dim;
+    //Visit marks for searches, one for each thread
+    private final ThreadLocal<VisitMarks> visits = new ThreadLocal<>();
+
+    /**
+     * Creates a new index.
+     *
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2)
+     * @param dim Number of attributes
+     */
+    protected NeighborIndex(int measure, int dim)
+    {
+        this.measure = measure;
+        this.dim = dim;
+    }
+
+    /**
+     * Finds the nearest training instances to a query. The heap is filled with the
+     * training instance indexes and distances of the neighbors.
+     *
+     * @param q Query attributes
+     * @param heap Heap that holds the neighbors, with capacity K
+     */
+    abstract void search(double[] q, NeighborHeap heap);
+    
+    /**
+     * Checks if the search always finds the nearest neighbors.
+     *
+     * @return True for exact search, false for approximate search
+     */
+    boolean exact()
+    {
+        return true;
+    }
+
+    /**
+     * Returns the visit marks for searches in the current thread. The marks are re-used
+     * between searches, so no arrays over all training instances are created for each query.
+     *
+     * @param n Number of training instances
+     * @return Visit marks
+     */
+    protected VisitMarks visit_marks(int n)
+    {
+        VisitMarks v = visits.get();
+        if (v == null || v.marks.length != n)
+        {
+            v = new VisitMarks(n);
+            visits.set(v);
+        }
+        return v;
+    }
+
+    /**
+     * Calculates the distance between two attribute ranges.
+     *
+     * @param a First values array
+     * @param ao Index of the first attribute in the first array
+     * @param b Second values array
+     * @param bo Index of the first attribute in the second array
+     * @return Distance
+     */
+    protected double dist(double[] a, int ao, double[] b, int bo)
+    {
+        if (measure == KNNSettings.L1)
+        {
+            return VectorOps.abs_dist(a, ao, b, bo, dim);
+        }
+        return VectorOps.sq_dist(a, ao, b, bo, dim);
+    }
+    
+    /**
+     * Calculates the distance between two attribute ranges, but stops early if the distance
+     * is larger than a limit (such as the distance to the K:th nearest neighbor so far).
+     *
+     * @param a First values array
+     * @param ao Index of the first attribute in the first array
+     * @param b Second values array
+     * @param bo Index of the first attribute in the second array
+     * @param limit Largest distance of interest
+     * @return Distance, or a value larger than the limit
+     */
+    protected double dist(double[] a, int ao, double[] b, int bo, double limit)
+    {
+        if (measure == KNNSettings.L1)
+        {
+            return VectorOps.abs_dist(a, ao, b, bo, dim, limit);
+        }
+        return VectorOps.sq_dist(a, ao, b, bo, dim, limit);
+    }
+
+    /**
+     * Converts a difference along one attribute to a lower bound for the distance.
+     *
+     * @param diff Difference along the attribute
+     * @return Lower bound for the distance
+     */
+    protected double bound(double diff)
+    {
+        if (measure == KNNSettings.L1)
+        {
+            return Math.abs(diff);
+        }
+        return diff * diff;
+    }
+
+    /**
+     * Copies the attributes of all instances in a dataset into a single array, instance by instance.
+     *
+     * @param data The dataset
+     * @return Attribute values
+     */
+    protected static double[] flatten(Dataset data)
+    {
+        int n = data.size();
+        int dim = data.noInputs();
+        double[] pts = new double[n * dim];
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(data.get(i).x.v, 0, pts, i * dim, dim);
+        }
+        return pts;
+    }
+}
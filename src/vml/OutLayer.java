@@ -14,16 +14,18 @@ public class OutLayer
     protected Tensor2D w;
     //Bias tensor
     protected Tensor1D b;
-    //Gradients for gradient descent optimization
+    //Gradients for gradient descent optimization. The tensors are re-used
+    //between batches and also hold the momentum from previous gradients
     private Tensor2D dW;
     private Tensor1D dB;
     //Training dataset
     private Tensor2D X;
     //Class values tensor
     private Tensor1D y;
-    //Scores tensor = X*W+b
-    protected Tensor2D scores;
-    //Softmax gradients tensor
+    //Probabilities tensor = softmax(W*X+b)
+    protected Tensor2D probs;
+    //Softmax gradients tensor. The gradients are calculated in place in the
+    //probabilities tensor, so both fields refer to the same tensor.
     protected Tensor2D dscores;
     //L2 regularization
     private double RW;
@@ -74,8 +76,8 @@ public class OutLayer
     {
         this.X = X;
         
-        //Activation
-        scores = Tensor2D.activation(w, X, b);        
+        //Activation and Softmax, re-using the probabilities tensor
+        probs = Tensor2D.activation_softmax(w, X, b, probs);
     }
     
     /**
@@ -103,7 +105,7 @@ public class OutLayer
      */
     public int classify(int i)
     {
-        int pred_class = scores.argmax(i);
+        int pred_class = probs.argmax(i);
         return pred_class; 
     }
     
@@ -121,44 +123,17 @@ public class OutLayer
         int num_train = X.columns();
         double loss = 0;
         
-        //Calculate exponentials
-        //Tensor2D logprobs = scores.exp();
-        
-        //To avoid numerical instability
-        Tensor2D logprobs = scores.shift_columns();
-        logprobs.exp();
-        
-        //Normalize
-        logprobs.normalize();
-        
-        //Calculate cross-entropy loss tensor
-        Tensor1D loss_vec = logprobs.calc_loss(y);
-        
-        //Average loss
-        loss = loss_vec.sum() / num_train;
+        //Softmax probabilities are calculated in the forward pass
+        //Average cross-entropy loss
+        loss = probs.sum_loss(y) / num_train;
         //Regularization loss
         loss += RW;
         
-        //Momentum
-        Tensor2D oldDW = null;
-        Tensor1D oldDB = null;
-        if (dW != null && settings.momentum > 0.0)
-        {
-            oldDW = dW.copy();
-            oldDB = dB.copy();
-        }
-        
-        //Gradients
-        dscores = logprobs.calc_dscores(y);
-        dW = Tensor2D.mul_transpose(dscores, X);
-        dB = dscores.sum_rows();
-        
-        //Momentum
-        if (oldDW != null && settings.momentum > 0.0)
-        {
-            dW.add(oldDW, settings.momentum);
-            dB.add(oldDB, settings.momentum);
-        }
+        //Gradients, with momentum from the previous gradients added in place.
+        //The gradients overwrite the probabilities (dscores is probs).
+        dscores = probs.calc_dscores(y);
+        dW = Tensor2D.mul_transpose(dscores, X, dW, settings.momentum);
+        dB = dscores.sum_rows(dB, settings.momentum);
         
         //Add regularization to gradients
         //The weight tensor scaled by Lambda*0.5 is added
@@ -181,21 +156,9 @@ public class OutLayer
         int num_train = X.columns();
         double loss = 0;
         
-        //Calculate exponentials
-        //Tensor2D logprobs = scores.exp();
-        
-        //To avoid numerical instability
-        Tensor2D logprobs = scores.shift_columns();
-        logprobs.exp();
-        
-        //Normalize
-        logprobs.normalize();
-        
-        //Calculate cross-entropy loss tensor
-        Tensor1D loss_vec = logprobs.calc_loss(y);
-        
-        //Average loss
-        loss = loss_vec.sum() / num_train;
+        //Softmax probabilities are calculated in the forward pass
+        //Average cross-entropy loss
+        loss = probs.sum_loss(y) / num_train;
         
         return loss;
     }
@@ -0,0 +1,252 @@
+package vml;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantization (PQ) index for approximate nearest neighbor search. The attributes
+ * are split into subspaces, and each subspace has a codebook of up to 256 centroids found
+ * by k-means. A training instance is encoded as one byte per subspace, the index of the
+ * nearest centroid. To search, the distances from the query to all centroids are calculated
+ * once per subspace, and the distance to a training instance is then the sum of one table
+ * lookup per subspace. The nearest instances by these distances form a shortlist that is
+ * ranked by exact distances, read from the training dataset. The index itself keeps no
+ * attribute values, but the training dataset is still needed for the exact ranking, so
+ * the index makes the scan faster but does not reduce the total memory used.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class PQ extends NeighborIndex
+{
+    //Seed for the sample used by k-means, so the codebooks are the same between runs
+    private static final long SEED = 42;
+    //Max number of centroids per subspace (codes are stored in one byte)
+    private static final int CENTROIDS = 256;
+    //Max number of training instances used to find the centroids
+    private static final int TRAIN_SAMPLES = 5000;
+    //Number of k-means iterations
+    private static final int ITERATIONS = 10;
+
+    //Training dataset, used for exact ranking of the shortlist
+    private final Dataset data;
+    //Number of subspaces and the first attribute of each subspace (plus the end)
+    private final int m;
+    private final int[] sub;
+    //Number of centroids per subspace
+    private final int kc;
+    //Centroids, subspace by subspace, where each subspace has kc centroids
+    private final double[] centroids;
+    //Codes, instance by instance
+    private final byte[] codes;
+    //Number of instances in the shortlist
+    private final int shortlist;
+
+    /**
+     * Builds a PQ index for a training dataset.
+     *
+     * @param data Training dataset
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2)
+     * @param subspaces Number of subspaces
+     * @param shortlist Number of instances ranked by exact distances
+     */
+    PQ(Dataset data, int measure, int subspaces, int shortlist)
+    {
+        super(measure, data.noInputs());
+
+        this.data = data;
+        int n = data.size();
+        this.m = Math.max(1, Math.min(subspaces, dim));
+        this.shortlist = Math.max(1, shortlist);
+        sub = new int[m + 1];
+        for (int s = 0; s <= m; s++)
+        {
+            sub[s] = s * dim / m;
+        }
+
+        //Find centroids on a sample of the training instances
+        Random rnd = new Random(SEED);
+        int[] sample = sample(n, rnd);
+        kc = Math.max(1, Math.min(CENTROIDS, sample.length));
+        centroids = new double[kc * dim];
+        if (n > 0)
+        {
+            for (int s = 0; s < m; s++)
+            {
+                kmeans(s, sample);
+            }
+        }
+
+        //Encode all instances
+        codes = new byte[n * m];
+        TensorExec.for_range(n, (long)n * kc * dim, i -> {
+            for (int s = 0; s < m; s++)
+            {
+                codes[i * m + s] = (byte)nearest(s, data.get(i).x.v);
+            }
+        });
+    }
+
+    /**
+     * Selects a random sample of training instances.
+     *
+     * @param n Number of training instances
+     * @param rnd Randomizer
+     * @return Instance indexes
+     */
+    private static int[] sample(int n, Random rnd)
+    {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            idx[i] = i;
+        }
+        int size = Math.min(n, TRAIN_SAMPLES);
+        for (int i = 0; i < size; i++)
+        {
+            int j = i + rnd.nextInt(n - i);
+            int t = idx[i];
+            idx[i] = idx[j];
+            idx[j] = t;
+        }
+        int[] res = new int[size];
+        System.arraycopy(idx, 0, res, 0, size);
+        return res;
+    }
+
+    /**
+     * Calculates the distance between part of an instance and a centroid in a subspace.
+     *
+     * @param s Subspace
+     * @param c Centroid
+     * @param v Attribute values of the instance
+     * @return Distance
+     */
+    private double sub_dist(int s, int c, double[] v)
+    {
+        int len = sub[s + 1] - sub[s];
+        int co = sub[s] * kc + c * len;
+        if (measure == KNNSettings.L1)
+        {
+            return VectorOps.abs_dist(centroids, co, v, sub[s], len);
+        }
+        return VectorOps.sq_dist(centroids, co, v, sub[s], len);
+    }
+
+    /**
+     * Finds the nearest centroid in a subspace.
+     *
+     * @param s Subspace
+     * @param v Attribute values
+     * @return Centroid index
+     */
+    private int nearest(int s, double[] v)
+    {
+        int best = 0;
+        double best_d = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < kc; c++)
+        {
+            double d = sub_dist(s, c, v);
+            if (d < best_d)
+            {
+                best_d = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the centroids for a subspace with k-means.
+     *
+     * @param s Subspace
+     * @param sample Training instances to use (at least one)
+     */
+    private void kmeans(int s, int[] sample)
+    {
+        int len = sub[s + 1] - sub[s];
+        int base = sub[s] * kc;
+
+        //Start from the first instances in the (shuffled) sample
+        for (int c = 0; c < kc; c++)
+        {
+            System.arraycopy(data.get(sample[c]).x.v, sub[s], centroids, base + c * len, len);
+        }
+
+        int[] assign = new int[sample.length];
+        double[] sum = new double[kc * len];
+        int[] cnt = new int[kc];
+        for (int it = 0; it < ITERATIONS; it++)
+        {
+            //Assign instances to the nearest centroid
+            TensorExec.for_range(sample.length, (long)sample.length * kc * len, i -> {
+                assign[i] = nearest(s, data.get(sample[i]).x.v);
+            });
+
+            //Move centroids to the mean of their instances
+            Arrays.fill(sum, 0);
+            Arrays.fill(cnt, 0);
+            for (int i = 0; i < sample.length; i++)
+            {
+                double[] v = data.get(sample[i]).x.v;
+                int c = assign[i];
+                cnt[c]++;
+                for (int a = 0; a < len; a++)
+                {
+                    sum[c * len + a] += v[sub[s] + a];
+                }
+            }
+            for (int c = 0; c < kc; c++)
+            {
+                //Keep centroids without instances
+                if (cnt[c] == 0) continue;
+                for (int a = 0; a < len; a++)
+                {
+                    centroids[base + c * len + a] = sum[c * len + a] / cnt[c];
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean exact()
+    {
+        return false;
+    }
+
+    @Override
+    void search(double[] q, NeighborHeap heap)
+    {
+        heap.clear();
+        int n = codes.length / m;
+
+        //Distances from the query to all centroids
+        double[] table = new double[m * kc];
+        for (int s = 0; s < m; s++)
+        {
+            for (int c = 0; c < kc; c++)
+            {
+                table[s * kc + c] = sub_dist(s, c, q);
+            }
+        }
+
+        //Shortlist by approximate distances
+        NeighborHeap approx = new NeighborHeap(Math.min(n, Math.max(shortlist, heap.capacity())));
+        for (int i = 0; i < n; i++)
+        {
+            int o = i * m;
+            double d = 0;
+            for (int s = 0; s < m; s++)
+            {
+                d += table[s * kc + (codes[o + s] & 0xFF)];
+            }
+            if (d <= approx.worst()) approx.offer(d, i);
+        }
+
+        //Rank the shortlist by exact distances
+        for (int j = 0; j < approx.size(); j++)
+        {
+            int i = approx.index(j);
+            heap.offer(dist(q, 0, data.get(i).x.v, 0, heap.worst()), i);
+        }
+    }
+}
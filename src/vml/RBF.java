@@ -1,7 +1,6 @@
 
 package vml;
 
-import java.util.stream.IntStream;
 import java.util.concurrent.atomic.DoubleAdder;
 
 /**
@@ -61,7 +60,7 @@ public class RBF
     {
         //Calculate sum of RBF values for class 0
         DoubleAdder s0 = new DoubleAdder();
-        IntStream.range(0, d0.size()).parallel().forEach(i1 -> {
+        TensorExec.for_range(d0.size(), (long)d0.size() * d0.size(), i1 -> {
            for (int i2 = 0; i2 < d0.size(); i2++)
             {
                 s0.add(RBF(d0.get(i1).x, d0.get(i2).x));
@@ -69,7 +68,7 @@ public class RBF
         });
         //Calculate sum of RBF values for class 1
         DoubleAdder s1 = new DoubleAdder();
-        IntStream.range(0, d1.size()).parallel().forEach(i1 -> {
+        TensorExec.for_range(d1.size(), (long)d1.size() * d1.size(), i1 -> {
            for (int i2 = 0; i2 < d1.size(); i2++)
             {
                 s1.add(RBF(d1.get(i1).x, d1.get(i2).x));
@@ -106,11 +105,11 @@ public class RBF
         //Iterate over all training data instances
         //and calculate RBF values
         DoubleAdder s0 = new DoubleAdder();
-        IntStream.range(0, d0.size()).parallel().forEach(d -> {
+        TensorExec.for_range(d0.size(), (long)d0.size() * i.x.size(), d -> {
             s0.add(RBF(i.x, d0.data.get(d).x));
         });
         DoubleAdder s1 = new DoubleAdder();
-        IntStream.range(0, d1.size()).parallel().forEach(d -> {
+        TensorExec.for_range(d1.size(), (long)d1.size() * i.x.size(), d -> {
             s1.add(RBF(i.x, d1.data.get(d).x));
         });
         
@@ -129,14 +128,9 @@ public class RBF
      */
     public double RBF(Tensor1D v1, Tensor1D v2)
     {
-        double sq_dist = 0;
         //Find squared distance between v1 and v2
-        //First, sum the squared diff between all values
-        for (int i = 0; i < v1.size(); i++)
-        {
-            sq_dist += Math.pow(v1.v[i] - v2.v[i], 2);
-        }
-        double rb = Math.pow(Math.E, -gamma * sq_dist);
+        double sq_dist = VectorOps.sq_dist(v1.v, v2.v);
+        double rb = Math.exp(-gamma * sq_dist);
         
         return rb;
     }
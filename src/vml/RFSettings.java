@@ -33,6 +33,12 @@ public class RFSettings
      */
     public double sample_size = 0.9;
     
+    /**
+     * Number of bins per attribute for histogram-based split search (max 256).
+     * 0 searches all attribute values.
+     */
+    public int bins = 0;
+    
     /**
      * Creates default settings.
      */
@@ -43,6 +49,7 @@ public class RFSettings
         shuffle = true;
         trees = 7;
         sample_size = 0.9;
+        bins = 0;
     }
     
     /**
@@ -55,6 +62,7 @@ public class RFSettings
         CARTSettings settings = new CARTSettings();
         settings.max_depth = max_depth;
         settings.min_size = min_size;
+        settings.bins = bins;
         return settings;
     }
 }
@@ -2,6 +2,7 @@
 package vml;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -11,14 +12,36 @@ import java.util.Random;
  */
 public class RandomForest extends Classifier
 {
+    //Number of test instances that are classified together by classify_all
+    private static final int BLOCK = 256;
+    
     //Configuration settings
     private RFSettings settings;
-    //Forest
+    //Forest (trees are removed when stored in the forest arrays)
     private ArrayList<CART> forest;
+    //Number of trained trees
+    private int trained;
     //Randomizer
     private Random rnd;
     //Dummy logger
     private Logger l;
+    //Internal test dataset
+    private Dataset tdata;
+    
+    //Trained trees stored in arrays, with the nodes of each tree after each other
+    //Attribute to split at (-1 for leaf nodes)
+    private int[] f_attr;
+    //Value to split at
+    private double[] f_val;
+    //Left and right branch
+    private int[] f_left;
+    private int[] f_right;
+    //Predicted label
+    private int[] f_label;
+    //Root node of each trained tree
+    private int[] f_roots;
+    //Number of nodes in the arrays
+    private int f_nodes;
     
     /**
      * Creates a classifier.
@@ -64,11 +87,17 @@ public class RandomForest extends Classifier
             o.appendText("Test data: " + test.getName());
         }
         
+        share_data();
+        
         //Parallell training
-        forest.stream().parallel().forEach((c) -> 
+        TensorExec.for_range(forest.size(), (long)forest.size() * data.size() * data.noInputs(), t -> 
         {
-            c.train(l);
+            forest.get(t).train(l);
         });
+        while (trained < forest.size())
+        {
+            append_tree();
+        }
         
         training_done = true;
     }
@@ -81,29 +110,61 @@ public class RandomForest extends Classifier
     @Override
     public double iterate()
     {
-        int c_tree = -1;
-        
-        for (int i = 0; i < forest.size(); i++)
-        {
-            if (!forest.get(i).training_done())
-            {
-                c_tree = i;
-                break;
-            }
-        }
-        
         //Check if we're already done
-        if (c_tree == -1) 
+        if (trained == forest.size()) 
         {
             training_done = true;
             return 0;
         }
         
-        forest.get(c_tree).train(l);
+        if (trained == 0)
+        {
+            share_data();
+        }
+        forest.get(trained).train(l);
+        append_tree();
         
         return 0;
     }
     
+    /**
+     * Stores the next trained tree in the forest arrays, so instances are classified without
+     * going through the tree objects. The arrays grow as trees are added, and the tree is
+     * removed from the forest once stored.
+     */
+    private void append_tree()
+    {
+        CART c = forest.get(trained);
+        int n = c.nodes();
+        if (f_nodes + n > f_attr.length)
+        {
+            int cap = Math.max(f_nodes + n, 2 * f_attr.length);
+            f_attr = Arrays.copyOf(f_attr, cap);
+            f_val = Arrays.copyOf(f_val, cap);
+            f_left = Arrays.copyOf(f_left, cap);
+            f_right = Arrays.copyOf(f_right, cap);
+            f_label = Arrays.copyOf(f_label, cap);
+        }
+        c.copy_tree(f_attr, f_val, f_left, f_right, f_label, f_nodes);
+        f_roots = Arrays.copyOf(f_roots, trained + 1);
+        f_roots[trained] = f_nodes;
+        f_nodes += n;
+        
+        //The tree is only needed until it is stored
+        forest.set(trained, null);
+        trained++;
+        
+        //No more trees will be added
+        if (trained == forest.size())
+        {
+            f_attr = Arrays.copyOf(f_attr, f_nodes);
+            f_val = Arrays.copyOf(f_val, f_nodes);
+            f_left = Arrays.copyOf(f_left, f_nodes);
+            f_right = Arrays.copyOf(f_right, f_nodes);
+            f_label = Arrays.copyOf(f_label, f_nodes);
+        }
+    }
+    
     /**
      * Creates the CART tree forest.
      */
@@ -112,6 +173,14 @@ public class RandomForest extends Classifier
         //Randomizer
         rnd = new Random(seed);
         forest = new ArrayList<>();
+        trained = 0;
+        f_attr = new int[0];
+        f_val = new double[0];
+        f_left = new int[0];
+        f_right = new int[0];
+        f_label = new int[0];
+        f_roots = new int[0];
+        f_nodes = 0;
         
         l = Logger.getConsoleLogger();
         l.disable();
@@ -119,28 +188,46 @@ public class RandomForest extends Classifier
         //Init trees
         for (int i = 0; i < settings.trees; i++)
         {
-            Dataset d = getRandomSubset(settings.sample_size);
-            CART c = new CART(d, test, settings.getTreeSettings());
+            int[] sample = getRandomSubset(settings.sample_size);
+            CART c = new CART(data, test, settings.getTreeSettings(), sample);
             c.enableForestRandomizer(seed + i);
             forest.add(c);
         }
     }
     
     /**
-     * Returns a random subset of the dataset.
+     * Sorts or bins the training dataset once for all trees, depending on the split search
+     * used by the trees.
+     */
+    private void share_data()
+    {
+        Instance[] inst = data.data.toArray(new Instance[0]);
+        //Sorted instances for each attribute, for the exact split search
+        int[][] data_order = settings.bins > 0 ? null : CART.sort_instances(inst, data.noInputs());
+        //Bins for each attribute, for the binned split search
+        CART.Bins data_bins = settings.bins > 0 ? CART.create_bins(inst, data.noInputs(), settings.bins) : null;
+        for (CART c : forest)
+        {
+            c.set_data_order(data_order);
+            c.set_data_bins(data_bins);
+        }
+    }
+    
+    /**
+     * Returns a random subset of the dataset, drawn with replacement. The subset is
+     * returned as instance indexes, so the trees share the instances in the dataset.
      * 
      * @param sample_size Sample size
-     * @return Random subset
+     * @return Indexes of the instances in the random subset
      */
-    private Dataset getRandomSubset(double sample_size)
+    private int[] getRandomSubset(double sample_size)
     {
         int size = (int)(data.size() * sample_size);
         
-        Dataset sub = data.clone_empty();
+        int[] sub = new int[size];
         for (int i = 0; i < size; i++)
         {
-            int rndI = rnd.nextInt(data.size());
-            sub.add(data.get(rndI));
+            sub[i] = rnd.nextInt(data.size());
         }
         
         return sub;
@@ -154,10 +241,8 @@ public class RandomForest extends Classifier
     @Override
     public void activation(Dataset test)
     {
-        for (int i = 0; i < forest.size(); i++)
-        {
-            forest.get(i).activation(test);
-        }
+        //Sets test dataset
+        tdata = test;
     }
     
     /**
@@ -170,16 +255,96 @@ public class RandomForest extends Classifier
     public int classify(int i)
     {
         //Hard voting
-        Tensor1D pred = Tensor1D.zeros(data.noCategories());
-        for (int c = 0; c < forest.size(); c++)
+        int[] votes = new int[noCategories];
+        double[] x = tdata.get(i).x.v;
+        for (int root : f_roots)
+        {
+            votes[f_label[leaf(root, x)]]++;
+        }
+        
+        return argmax(votes, 0);
+    }
+    
+    /**
+     * Classifies all instances in the dataset. Instances are classified in blocks, where
+     * each tree classifies all instances in the block before the next tree is used, so the
+     * nodes of a tree stay in the cache. Blocks are classified in parallel.
+     * 
+     * @param n Number of instances
+     * @return Predicted class values
+     */
+    @Override
+    public int[] classify_all(int n)
+    {
+        int[] pred = new int[n];
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        TensorExec.for_range(blocks, (long)n * f_roots.length * settings.max_depth, b -> {
+            classify_block(b * BLOCK, Math.min(BLOCK, n - b * BLOCK), pred);
+        });
+        return pred;
+    }
+    
+    /**
+     * Classifies a block of instances in the dataset.
+     * 
+     * @param start Index of the first instance
+     * @param len Number of instances
+     * @param pred Predicted class values
+     */
+    private void classify_block(int start, int len, int[] pred)
+    {
+        double[][] x = new double[len][];
+        for (int j = 0; j < len; j++)
+        {
+            x[j] = tdata.get(start + j).x.v;
+        }
+        
+        //Hard voting
+        int[] votes = new int[len * noCategories];
+        for (int root : f_roots)
         {
-            if (forest.get(c).training_done())
+            for (int j = 0; j < len; j++)
             {
-                int pred_label = forest.get(c).classify(i);
-                pred.v[pred_label]++;
+                votes[j * noCategories + f_label[leaf(root, x[j])]]++;
             }
         }
         
-        return pred.argmax();
+        for (int j = 0; j < len; j++)
+        {
+            pred[start + j] = argmax(votes, j * noCategories);
+        }
+    }
+    
+    /**
+     * Finds the leaf node for an instance in a tree.
+     * 
+     * @param node Root node of the tree
+     * @param x Attribute values of the instance
+     * @return Leaf node
+     */
+    private int leaf(int node, double[] x)
+    {
+        while (f_attr[node] != -1)
+        {
+            node = x[f_attr[node]] < f_val[node] ? f_left[node] : f_right[node];
+        }
+        return node;
+    }
+    
+    /**
+     * Returns the class with the most votes. Ties go to the lowest class value.
+     * 
+     * @param votes Votes array
+     * @param o Index of the votes for the first class
+     * @return Class value
+     */
+    private int argmax(int[] votes, int o)
+    {
+        int best = 0;
+        for (int c = 1; c < noCategories; c++)
+        {
+            if (votes[o + c] > votes[o + best]) best = c;
+        }
+        return best;
     }
 }
@@ -48,7 +48,7 @@ public class SVD
         Tensor2D S = Tensor2D.zeros(EV.size(), EV.size());
         for (int i = 0; i < EV.size(); i++)
         {
-            S.v[i][i] = Math.sqrt(Math.abs(EV.v[i]));
+            S.set(i, i, Math.sqrt(Math.abs(EV.v[i])));
         }
         
         //Find number of concepts to remove
@@ -82,7 +82,7 @@ public class SVD
         double sum = 0;
         for (int i = 0; i < S.columns(); i++)
         {
-            sum += Math.abs(S.v[i][i]);
+            sum += Math.abs(S.get(i, i));
         }
         
         //Second, find number of concepts to remove
@@ -91,7 +91,7 @@ public class SVD
         int concepts = 1;
         for (int i = 0; i < S.columns(); i++)
         {
-            energy += Math.abs(S.v[i][i]);
+            energy += Math.abs(S.get(i, i));
             if (energy <= sum * 0.9)
             {
                 concepts++;
@@ -112,6 +112,22 @@ public class Tensor1D
         this.v = v;
     }
     
+    /**
+     * Returns the 1D-tensor if it has the specified size, otherwise a new 1D-tensor.
+     * 
+     * @param t The 1D-tensor to re-use, or null
+     * @param s Size of the 1D-tensor
+     * @return 1D-tensor of the specified size
+     */
+    protected static Tensor1D reuse(Tensor1D t, int s)
+    {
+        if (t == null || t.size() != s)
+        {
+            return zeros(s);
+        }
+        return t;
+    }
+    
     /**
      * Fills the 1D-tensor with the specified value.
      * 
@@ -202,12 +218,7 @@ public class Tensor1D
      */
     public double sum()
     {
-        double sum = 0;
-        for (int i = 0; i < size(); i++)
-        {
-            sum += v[i];
-        }
-        return sum;
+        return VectorOps.sum(v, 0, v.length);
     }
     
     /**
@@ -232,13 +243,7 @@ public class Tensor1D
      */
     public double avg()
     {
-        double avg = 0;
-        for (int i = 0; i < size(); i++)
-        {
-            avg += v[i];
-        }
-        avg /= size();
-        return avg;
+        return VectorOps.sum(v, 0, v.length) / size();
     }
     
     /**
@@ -255,12 +260,7 @@ public class Tensor1D
             throw new ArithmeticException("Size of both 1D-tensors must be the same");
         }
         
-        double dot = 0;
-        for (int i = 0; i < size(); i++)
-        {
-            dot += v[i] * v2.v[i];
-        }
-        return dot;
+        return VectorOps.dot(v, 0, v2.v, 0, v.length);
     }
     
     /**
@@ -278,15 +278,15 @@ public class Tensor1D
             throw new ArithmeticException("Size of both 1D-tensors must be the same");
         }
         
-        double[][] nv = new double[v1.size()][v1.size()];
+        Tensor2D res = Tensor2D.zeros(v1.size(), v1.size());
         for (int r = 0; r < v1.size(); r++)
         {
             for (int c = 0; c < v1.size(); c++)
             {
-                nv[r][c] = v1.v[r] * v2.v[c];
+                res.set(r, c, v1.v[r] * v2.v[c]);
             }
         }
-        return new Tensor2D(nv);
+        return res;
     }
     
     /**
@@ -319,9 +319,9 @@ public class Tensor1D
      */
     public void update_weights(Tensor1D dB, double learningrate)
     {
-        for (int i = 0; i < size(); i++)
+        for (int i = 0; i < v.length; i++)
         {
-            v[i] -= dB.get(i) * learningrate;
+            v[i] -= dB.v[i] * learningrate;
         }
     }
     
@@ -365,13 +365,7 @@ public class Tensor1D
             throw new ArithmeticException("Size of 1D-tensors must be equal");
         }
         
-        double d = 0;
-        for (int i = 0; i < v1.size(); i++)
-        {
-            d += Math.abs(v1.get(i) - v2.get(i));
-        }
-        
-        return d;
+        return VectorOps.abs_dist(v1.v, v2.v);
     }
     
     /**
@@ -388,13 +382,7 @@ public class Tensor1D
             throw new ArithmeticException("Size of 1D-tensors must be equal");
         }
         
-        double d = 0;
-        for (int i = 0; i < v1.size(); i++)
-        {
-            d += Math.pow(v1.get(i) - v2.get(i), 2);
-        }
-        
-        return d;
+        return VectorOps.sq_dist(v1.v, v2.v);
     }
     
     /**
@@ -404,13 +392,7 @@ public class Tensor1D
      */
     public double frobenius_norm()
     {
-        double s = 0;
-        for (int i = 0; i < v.length; i++)
-        {
-            s += Math.pow(v[i], 2);
-        }
-        
-        return Math.sqrt(s);
+        return Math.sqrt(VectorOps.dot(v, 0, v, 0, v.length));
     }
     
     /**
@@ -421,12 +403,7 @@ public class Tensor1D
      */
     public static Tensor1D normalize(Tensor1D v)
     {
-        double sqSum = 0;
-        for (int i = 0; i < v.size(); i++)
-        {
-            sqSum += Math.pow(v.v[i], 2);
-        }
-        sqSum = Math.sqrt(sqSum);
+        double sqSum = Math.sqrt(VectorOps.dot(v.v, 0, v.v, 0, v.v.length));
         
         //Normalize values
         double[] sv = new double[v.size()];
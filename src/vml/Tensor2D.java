@@ -2,8 +2,8 @@
 package vml;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.stream.*;
 
 /**
  * Representation of a 2D-tensor (a matrix).
@@ -12,7 +12,12 @@ import java.util.stream.*;
  */
 public class Tensor2D 
 {
-    protected double[][] v;
+    //Values, stored row by row in a single array
+    protected double[] v;
+    //Index of the first value in the values array
+    private int offset;
+    //Distance in the values array between two consecutive rows
+    private int stride;
     private int rows;
     private int cols;
     
@@ -28,8 +33,7 @@ public class Tensor2D
      */
     public static Tensor2D zeros(int r, int c)
     {
-        double[][] v = new double[r][c];
-        return new Tensor2D(v);
+        return new Tensor2D(r, c);
     }
     
     /**
@@ -59,29 +63,23 @@ public class Tensor2D
         //Generate random double values between: 0 ... 1
         double min = 1000;
         double max = -1000;
-        double[][] v = new double[r][c];
-        for (int a = 0; a < r; a++)
+        double[] v = new double[r * c];
+        for (int i = 0; i < v.length; i++)
         {
-            for (int b = 0; b < c; b++)
-            {
-                v[a][b] = rnd.nextDouble();
-                if (v[a][b] < min) min = v[a][b];
-                if (v[a][b] > max) max = v[a][b];
-            }
+            v[i] = rnd.nextDouble();
+            if (v[i] < min) min = v[i];
+            if (v[i] > max) max = v[i];
         }
         
         //Normalize values between: -scale ... scale
-        double[][] sv = new double[r][c];
-        for (int a = 0; a < r; a++)
+        double[] sv = new double[r * c];
+        for (int i = 0; i < sv.length; i++)
         {
-            for (int b = 0; b < c; b++)
-            {
-                sv[a][b] = (v[a][b] - min) / (max - min) * scale * 2 - scale;
-            }
+            sv[i] = (v[i] - min) / (max - min) * scale * 2 - scale;
         }
         
         //Return normalized 2D-tensor
-        return new Tensor2D(sv);
+        return new Tensor2D(sv, r, c);
     }
     
     /**
@@ -100,17 +98,14 @@ public class Tensor2D
         double stddev = 2.0 / Math.sqrt(c);
         
         //Generate random double values between: 0 ... 1
-        double[][] v = new double[r][c];
-        for (int a = 0; a < r; a++)
+        double[] v = new double[r * c];
+        for (int i = 0; i < v.length; i++)
         {
-            for (int b = 0; b < c; b++)
-            {
-                v[a][b] = rnd.nextGaussian() * stddev;
-            }
+            v[i] = rnd.nextGaussian() * stddev;
         }
         
         //Return 2D-tensor
-        return new Tensor2D(v);
+        return new Tensor2D(v, r, c);
     }
     
     /**
@@ -119,10 +114,86 @@ public class Tensor2D
      * @param v Values
      */
     public Tensor2D(double[][] v)
+    {
+        this(v.length, v[0].length);
+        for (int r = 0; r < rows; r++)
+        {
+            System.arraycopy(v[r], 0, this.v, r * cols, cols);
+        }
+    }
+    
+    /**
+     * Creates a new 2D-tensor with zeros.
+     * 
+     * @param rows Number of rows
+     * @param cols Number of columns
+     */
+    public Tensor2D(int rows, int cols)
+    {
+        this(new double[rows * cols], rows, cols);
+    }
+    
+    /**
+     * Creates a new 2D-tensor using the specified row-major values array.
+     * 
+     * @param v Values (row by row)
+     * @param rows Number of rows
+     * @param cols Number of columns
+     */
+    public Tensor2D(double[] v, int rows, int cols)
+    {
+        this(v, rows, cols, 0, cols);
+    }
+    
+    /**
+     * Creates a 2D-tensor view into a row-major values array. Values are not copied,
+     * so changes in the view are visible in the array and vice versa.
+     * 
+     * @param v Values array
+     * @param rows Number of rows
+     * @param cols Number of columns
+     * @param offset Index of the first value in the array
+     * @param stride Distance in the array between two consecutive rows
+     */
+    protected Tensor2D(double[] v, int rows, int cols, int offset, int stride)
     {
         this.v = v;
-        rows = v.length;
-        cols = v[0].length;
+        this.rows = rows;
+        this.cols = cols;
+        this.offset = offset;
+        this.stride = stride;
+    }
+    
+    /**
+     * Returns the index in the values array for a position in the 2D-tensor.
+     * 
+     * @param r Row
+     * @param c Column
+     * @return Index in the values array
+     */
+    protected int index(int r, int c)
+    {
+        return offset + r * stride + c;
+    }
+    
+    /**
+     * Returns the index in the values array of the first value in the 2D-tensor.
+     * 
+     * @return Offset in the values array
+     */
+    protected int offset()
+    {
+        return offset;
+    }
+    
+    /**
+     * Returns the distance in the values array between two consecutive rows.
+     * 
+     * @return Row stride
+     */
+    protected int stride()
+    {
+        return stride;
     }
     
     /**
@@ -134,7 +205,7 @@ public class Tensor2D
      */
     public double get(int r, int c)
     {
-        return v[r][c];
+        return v[offset + r * stride + c];
     }
     
     /**
@@ -146,7 +217,7 @@ public class Tensor2D
      */
     public void set(int r, int c, double value)
     {
-        v[r][c] = value;
+        v[offset + r * stride + c] = value;
     }
     
     /**
@@ -181,7 +252,7 @@ public class Tensor2D
         
         for (int r = 0; r < rows(); r++)
         {
-            nv[r] = v[r][c];
+            nv[r] = v[offset + r * stride + c];
         }
         
         return new Tensor1D(nv);
@@ -196,7 +267,7 @@ public class Tensor2D
      */
     public void add(int r, int c, double value)
     {
-        v[r][c] += value;
+        v[offset + r * stride + c] += value;
     }
     
     /**
@@ -224,14 +295,11 @@ public class Tensor2D
         //Activation 1D-tensor
         double[] nv = new double[w.rows()];
         
-        IntStream.range(0, w.rows()).parallel().forEach(r -> {
+        TensorExec.for_range(w.rows(), (long)w.rows() * w.columns(), r -> {
             //Multiply the row in weight 2D-tensor with the input 1D-tensor
-            for (int c = 0; c < w.columns(); c++)
-            {
-                nv[r] += w.get(r, c) * x.get(c);
-            }
+            nv[r] = VectorOps.dot(w.v, w.index(r, 0), x.v, 0, w.columns());
             //Add bias
-            nv[r] += b.get(r);
+            nv[r] += b.v[r];
         });
         
         return new Tensor1D(nv);
@@ -259,23 +327,146 @@ public class Tensor2D
             throw new ArithmeticException("Number of rows in weights tensor does not match size of bias tensor");
         }
         
-        //Activation 1D-tensor
-        double[][] nv = new double[w.rows()][x.columns()];
+        //Activation 2D-tensor
+        Tensor2D res = new Tensor2D(w.rows(), x.columns());
         
-        IntStream.range(0, x.columns()).parallel().forEach(nc -> {
-            for (int r = 0; r < w.rows(); r++)
+        //Multiply the weight 2D-tensor with the input 2D-tensor and add bias
+        MatMul.gemm(w, false, x, false, res, 0, b, false);
+        
+        return res;
+    }
+    
+    /**
+     * Calculates ReLU activation (max(0, w*x+b)) for a weights 2D-tensor and an input 2D-tensor
+     * in one pass. The result is written to the out 2D-tensor, which is re-used if it has the
+     * correct size.
+     * 
+     * @param w Weights 2D-tensor
+     * @param x Input 2D-tensor
+     * @param b Bias 1D-tensor
+     * @param out Result 2D-tensor to re-use, or null
+     * @return Activation 2D-tensor
+     * @throws ArithmeticException If unable to calculate the activation 2D-tensor 
+     */
+    public static Tensor2D activation_relu(Tensor2D w, Tensor2D x, Tensor1D b, Tensor2D out) throws ArithmeticException
+    {
+        //Error checks
+        check_activation(w, x, b);
+        
+        out = reuse(out, w.rows(), x.columns());
+        MatMul.gemm(w, false, x, false, out, 0, b, true);
+        
+        return out;
+    }
+    
+    /**
+     * Calculates Softmax activation for a weights 2D-tensor and an input 2D-tensor. Each column
+     * in the result holds the class probabilities for an input. The shift, exp and normalize steps 
+     * are done in a single pass over each column. The result is written to the out 2D-tensor, 
+     * which is re-used if it has the correct size.
+     * 
+     * @param w Weights 2D-tensor
+     * @param x Input 2D-tensor
+     * @param b Bias 1D-tensor
+     * @param out Result 2D-tensor to re-use, or null
+     * @return Probabilities 2D-tensor
+     * @throws ArithmeticException If unable to calculate the activation 2D-tensor 
+     */
+    public static Tensor2D activation_softmax(Tensor2D w, Tensor2D x, Tensor1D b, Tensor2D out) throws ArithmeticException
+    {
+        //Error checks
+        check_activation(w, x, b);
+        
+        out = reuse(out, w.rows(), x.columns());
+        MatMul.gemm(w, false, x, false, out, 0, b, false);
+        out.softmax();
+        
+        return out;
+    }
+    
+    /**
+     * Checks that the sizes of the weights, input and bias tensors match.
+     * 
+     * @param w Weights 2D-tensor
+     * @param x Input 2D-tensor
+     * @param b Bias 1D-tensor
+     * @throws ArithmeticException If the sizes does not match
+     */
+    private static void check_activation(Tensor2D w, Tensor2D x, Tensor1D b) throws ArithmeticException
+    {
+        if (w.columns() != x.rows())
+        {
+            throw new ArithmeticException("Number of columns in weights tensor does not match rows of input tensor");
+        }
+        if (w.rows() != b.size())
+        {
+            throw new ArithmeticException("Number of rows in weights tensor does not match size of bias tensor");
+        }
+    }
+    
+    /**
+     * Returns the 2D-tensor if it has the specified size, otherwise a new 2D-tensor.
+     * 
+     * @param t The 2D-tensor to re-use, or null
+     * @param r Number of rows
+     * @param c Number of columns
+     * @return 2D-tensor of the specified size
+     */
+    protected static Tensor2D reuse(Tensor2D t, int r, int c)
+    {
+        if (t == null || t.rows() != r || t.columns() != c)
+        {
+            return new Tensor2D(r, c);
+        }
+        return t;
+    }
+    
+    /**
+     * Returns a view of a range of columns in this 2D-tensor. The view shares values with
+     * this 2D-tensor, so no values are copied. If the view argument is a view of this
+     * 2D-tensor, it is moved to the new range instead of creating a new view.
+     * 
+     * @param start First column in the range
+     * @param n Number of columns in the range
+     * @param view View to re-use, or null
+     * @return View of the columns
+     */
+    protected Tensor2D view_columns(int start, int n, Tensor2D view)
+    {
+        if (view == null || view.v != v)
+        {
+            return new Tensor2D(v, rows, n, offset + start, stride);
+        }
+        view.rows = rows;
+        view.cols = n;
+        view.offset = offset + start;
+        view.stride = stride;
+        return view;
+    }
+    
+    /**
+     * Copies the columns at the specified indexes into a 2D-tensor, re-using the out 
+     * 2D-tensor if it has the correct size.
+     * 
+     * @param idx Column indexes
+     * @param start First position in the indexes array
+     * @param n Number of columns to copy
+     * @param out Result 2D-tensor to re-use, or null
+     * @return 2D-tensor with the columns
+     */
+    protected Tensor2D gather_columns(int[] idx, int start, int n, Tensor2D out)
+    {
+        out = reuse(out, rows, n);
+        for (int r = 0; r < rows; r++)
+        {
+            int i = index(r, 0);
+            int o = out.index(r, 0);
+            for (int c = 0; c < n; c++)
             {
-                //Multiply the row in weight 2D-tensor with the input 1D-tensor
-                for (int c = 0; c < w.columns(); c++)
-                {
-                    nv[r][nc] += w.v[r][c] * x.v[c][nc];
-                }
-                //Add bias
-                nv[r][nc] += b.v[r];
+                out.v[o + c] = v[i + idx[start + c]];
             }
-        });
-        
-        return new Tensor2D(nv);
+        }
+        return out;
     }
     
     /**
@@ -294,20 +485,32 @@ public class Tensor2D
             throw new ArithmeticException("Number of rows in first 2D-tensor does not match rows of second 2D-tensor");
         }
         
-        //Result 2D-tensor
-        double[][] nv = new double[w.columns()][d.columns()];
+        return transpose_mul(w, d, null);
+    }
+    
+    /**
+     * Calculates the product of the transpose of w and d. The result is written to the out
+     * 2D-tensor, which is re-used if it has the correct size.
+     * 
+     * @param w The 2D-tensor to transpose
+     * @param d The other 2D-tensor
+     * @param out Result 2D-tensor to re-use, or null
+     * @return Result 2D-tensor
+     * @throws ArithmeticException If unable to calculate the product
+     */
+    public static Tensor2D transpose_mul(Tensor2D w, Tensor2D d, Tensor2D out) throws ArithmeticException
+    {
+        //Error checks
+        if (w.rows() != d.rows())
+        {
+            throw new ArithmeticException("Number of rows in first 2D-tensor does not match rows of second 2D-tensor");
+        }
         
-        IntStream.range(0, d.columns()).parallel().forEach(nc -> {
-            for (int r = 0; r < w.columns(); r++)
-            {
-                for (int c = 0; c < w.rows(); c++)
-                {
-                    nv[r][nc] += w.v[c][r] * d.v[c][nc]; //Exchange rows with cols in w to get transpose
-                }
-            }
-        });
+        //Result 2D-tensor
+        out = reuse(out, w.columns(), d.columns());
+        MatMul.gemm(w, true, d, false, out, 0);
         
-        return new Tensor2D(nv);
+        return out;
     }
     
     /**
@@ -326,20 +529,35 @@ public class Tensor2D
             throw new ArithmeticException("Number of columns in first 2D-tensor does not match columns of second 2D-tensor");
         }
         
-        //Result 2D-tensor
-        double[][] nv = new double[d.rows()][x.rows()];
+        return mul_transpose(d, x, null, 0);
+    }
+    
+    /**
+     * Multiplies a 2D-tensor with the transpose of another 2D-tensor, and adds the current
+     * values of the out 2D-tensor scaled by beta (out = d*x^T + beta*out). The out 2D-tensor is 
+     * re-used if it has the correct size. This is used to add momentum to gradients without 
+     * copying the previous gradients.
+     * 
+     * @param d First 2D-tensor
+     * @param x Second 2D-tensor
+     * @param out Result 2D-tensor to re-use, or null
+     * @param beta Scale of the current values in the out 2D-tensor
+     * @return Result 2D-tensor
+     * @throws ArithmeticException If unable to calculate the product
+     */
+    public static Tensor2D mul_transpose(Tensor2D d, Tensor2D x, Tensor2D out, double beta) throws ArithmeticException
+    {
+        //Error checks
+        if (d.columns() != x.columns())
+        {
+            throw new ArithmeticException("Number of columns in first 2D-tensor does not match columns of second 2D-tensor");
+        }
         
-        IntStream.range(0, x.rows()).parallel().forEach(nc -> {
-            for (int r = 0; r < d.rows(); r++)
-            {
-                for (int c = 0; c < d.columns(); c++)
-                {
-                    nv[r][nc] += d.v[r][c] * x.v[nc][c]; //Exchange rows with cols in x to get transpose
-                }
-            }
-        });
+        //Result 2D-tensor
+        out = reuse(out, d.rows(), x.rows());
+        MatMul.gemm(d, false, x, true, out, beta);
         
-        return new Tensor2D(nv);
+        return out;
     }
     
     /**
@@ -360,20 +578,10 @@ public class Tensor2D
         }
         
         //Result 2D-tensor
-        double[][] nv = new double[m1.rows()][m2.columns()];
-        
-        IntStream.range(0, m2.columns()).parallel().forEach(nc -> {
-            for (int r = 0; r < m1.rows(); r++)
-            {
-                //Multiply the row in weight 2D-tensor with the input 1D-tensor
-                for (int c = 0; c < m1.columns(); c++)
-                {
-                    nv[r][nc] += m1.v[r][c] * m2.v[c][nc];
-                }
-            }
-        });
+        Tensor2D res = new Tensor2D(m1.rows(), m2.columns());
+        MatMul.gemm(m1, false, m2, false, res, 0);
         
-        return new Tensor2D(nv);
+        return res;
     }
     
     /**
@@ -395,12 +603,9 @@ public class Tensor2D
         //Activation 1D-tensor
         double[] nv = new double[w.rows()];
         
-        IntStream.range(0, w.rows()).parallel().forEach(r -> {
+        TensorExec.for_range(w.rows(), (long)w.rows() * w.columns(), r -> {
             //Multiply the row in the 2D-tensor with the 1D-tensor
-            for (int c = 0; c < w.columns(); c++)
-            {
-                nv[r] += w.get(r, c) * x.get(c);
-            }
+            nv[r] = VectorOps.dot(w.v, w.index(r, 0), x.v, 0, w.columns());
         });
         
         return new Tensor1D(nv);
@@ -425,11 +630,12 @@ public class Tensor2D
         //Activation 1D-tensor
         double[] nv = new double[w.rows()];
         
-        IntStream.range(0, w.rows()).parallel().forEach(r -> {
+        TensorExec.for_range(w.rows(), (long)w.rows() * w.columns(), r -> {
             //Multiply the row 1D-tensor with each column in the 2D-tensor
+            int wi = w.index(r, 0);
             for (int c = 0; c < w.columns(); c++)
             {
-                nv[r] += w.get(r, c) * x.get(c);
+                nv[r] += w.v[wi + c] * x.v[c];
             }
         });
         
@@ -444,16 +650,17 @@ public class Tensor2D
      */
     public static Tensor2D transpose(Tensor2D m)
     {
-        double[][] v = new double[m.columns()][m.rows()];
+        Tensor2D t = new Tensor2D(m.columns(), m.rows());
         for (int r = 0; r < m.rows(); r++)
         {
+            int mi = m.index(r, 0);
             for (int c = 0; c < m.columns(); c++)
             {
-                v[c][r] = m.v[r][c];
+                t.v[c * t.cols + r] = m.v[mi + c];
             }
         }
         
-        return new Tensor2D(v);
+        return t;
     }
     
     /**
@@ -467,10 +674,8 @@ public class Tensor2D
         
         for (int r = 0; r < rows(); r++)
         {
-            for (int c = 0; c < columns(); c++)
-            {
-                norm += get(r,c) * get(r,c);
-            }
+            int i = offset + r * stride;
+            norm += VectorOps.dot(v, i, v, i, columns());
         }
         
         return norm;
@@ -484,18 +689,58 @@ public class Tensor2D
      */
     public Tensor2D shift_columns()
     {
-        IntStream.range(0, columns()).parallel().forEach(c -> {
+        TensorExec.for_range(columns(), (long)rows() * columns(), c -> {
             //Calculate max
             double max = 0;
             for (int r = 0; r < rows(); r++)
             {
-                if (v[r][c] > max) max = v[r][c];
+                int i = offset + r * stride + c;
+                if (v[i] > max) max = v[i];
             }
             
             //Shift values
             for (int r = 0; r < rows(); r++)
             {
-                v[r][c] -= max;
+                v[offset + r * stride + c] -= max;
+            }
+        });
+        
+        return this;
+    }
+    
+    /**
+     * Calculates Softmax for each column in this 2D-tensor, i.e. shifts the values by the max 
+     * value of the column (to avoid numerical instability), calculates E^v and normalizes the 
+     * column so it sums to 1. Each column is processed in a single pass.
+     * 
+     * @return Result 2D-tensor
+     */
+    public Tensor2D softmax()
+    {
+        TensorExec.for_range(columns(), (long)rows() * columns(), c -> {
+            int i = offset + c;
+            int end = i + rows() * stride;
+            
+            //Calculate max
+            double max = Double.NEGATIVE_INFINITY;
+            for (int j = i; j < end; j += stride)
+            {
+                if (v[j] > max) max = v[j];
+            }
+            
+            //Shift and calculate exponentials
+            double sum = 0;
+            for (int j = i; j < end; j += stride)
+            {
+                double e = Math.exp(v[j] - max);
+                v[j] = e;
+                sum += e;
+            }
+            
+            //Normalize
+            for (int j = i; j < end; j += stride)
+            {
+                v[j] /= sum;
             }
         });
         
@@ -507,24 +752,25 @@ public class Tensor2D
      */
     public void normalize()
     {
-        IntStream.range(0, columns()).parallel().forEach(c -> {
+        TensorExec.for_range(columns(), (long)rows() * columns(), c -> {
             //Calculate sum
             double sum = 0;
             for (int r = 0; r < rows(); r++)
             {
-                sum += v[r][c];
+                sum += v[offset + r * stride + c];
             }
             
             //Normalize values
             for (int r = 0; r < rows(); r++)
             {
-                v[r][c] /= sum;
+                v[offset + r * stride + c] /= sum;
             }
         });
     }
     
     /**
-     * Calculates the dscores 2D-tensor from normalize log probabilities 1D-tensor.
+     * Calculates the dscores 2D-tensor from normalize log probabilities 1D-tensor. The
+     * values in this 2D-tensor are replaced by the dscores, and this 2D-tensor is returned.
      * 
      * @param y Correct class labels
      * 
@@ -532,15 +778,15 @@ public class Tensor2D
      */
     public Tensor2D calc_dscores(Tensor1D y)
     {
-        IntStream.range(0, columns()).parallel().forEach(c -> {
+        TensorExec.for_range(columns(), (long)rows() * columns(), c -> {
             //Find correct label for this training example
             int corr_index = (int)y.get(c);
             //Subtract the column value by 1
-            v[corr_index][c] -= 1.0;
+            v[offset + corr_index * stride + c] -= 1.0;
             //Divide by number of training examples
             for (int r = 0; r < rows(); r++)
             {
-                v[r][c] /= y.size();
+                v[offset + r * stride + c] /= y.size();
             }
         });
         
@@ -561,7 +807,7 @@ public class Tensor2D
         for (int c = 0; c < columns(); c++)
         {
             //Find correct class score for this training example
-            double class_score = v[(int)y.get(c)][c];
+            double class_score = v[offset + (int)y.get(c) * stride + c];
             //Calculate loss
             double Li = -1.0 * Math.log(class_score) / Math.log(Math.E);
             L[c] = Li;
@@ -570,6 +816,27 @@ public class Tensor2D
         return new Tensor1D(L);
     }
     
+    /**
+     * Calculates the summed Softmax cross-entropy loss for this 2D-tensor of class probabilities.
+     * 
+     * @param y Correct class labels
+     * @return Summed loss
+     */
+    public double sum_loss(Tensor1D y)
+    {
+        double loss = 0;
+        
+        for (int c = 0; c < columns(); c++)
+        {
+            //Find correct class score for this training example
+            double class_score = v[offset + (int)y.get(c) * stride + c];
+            //Calculate loss
+            loss += -1.0 * Math.log(class_score);
+        }
+        
+        return loss;
+    }
+    
     /**
      * Calculates E^v for all values in the 2D-tensor.
      * 
@@ -577,10 +844,11 @@ public class Tensor2D
      */
     public Tensor2D exp()
     {
-        IntStream.range(0, columns()).parallel().forEach(c -> {
-            for (int r = 0; r < rows(); r++)
+        TensorExec.for_range(rows(), (long)rows() * columns(), r -> {
+            int i = offset + r * stride;
+            for (int c = 0; c < columns(); c++)
             {
-                v[r][c] = Math.pow(Math.E, v[r][c]);
+                v[i + c] = Math.exp(v[i + c]);
             }
         });
         
@@ -595,12 +863,7 @@ public class Tensor2D
      */
     public double sum_row(int r)
     {
-        double sum = 0;
-        for (int c = 0; c < columns(); c++)
-        {
-            sum += v[r][c];
-        }
-        return sum;
+        return VectorOps.sum(v, offset + r * stride, columns());
     }
     
     /**
@@ -614,7 +877,7 @@ public class Tensor2D
         double sum = 0;
         for (int r = 0; r < rows(); r++)
         {
-            sum += v[r][c];
+            sum += v[offset + r * stride + c];
         }
         return sum;
     }
@@ -627,18 +890,28 @@ public class Tensor2D
      */
     public Tensor1D sum_rows()
     {
-        //Loss 1D-tensor values
-        double[] sum = new double[rows()];
+        return sum_rows(null, 0);
+    }
+    
+    /**
+     * Calculates the sum of each row in this 2D-tensor and adds the current values of the
+     * out 1D-tensor scaled by beta (out = sum + beta*out). The out 1D-tensor is re-used if it 
+     * has the correct size.
+     * 
+     * @param out Result 1D-tensor to re-use, or null
+     * @param beta Scale of the current values in the out 1D-tensor
+     * @return The 1D-tensor
+     */
+    public Tensor1D sum_rows(Tensor1D out, double beta)
+    {
+        out = Tensor1D.reuse(out, rows());
         
         for (int r = 0; r < rows(); r++)
         {
-            for (int c = 0; c < columns(); c++)
-            {
-                sum[r] += v[r][c];
-            }
+            out.v[r] = sum_row(r) + beta * out.v[r];
         }
         
-        return new Tensor1D(sum);
+        return out;
     }
     
     /**
@@ -657,9 +930,11 @@ public class Tensor2D
         
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
+            int mi = m.index(r, 0);
             for (int c = 0; c < columns(); c++)
             {
-                v[r][c] += m.get(r,c) * scale;
+                v[i + c] += m.v[mi + c] * scale;
             }
         }
     }
@@ -674,9 +949,11 @@ public class Tensor2D
     {
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
+            int di = dW.index(r, 0);
             for (int c = 0; c < columns(); c++)
             {
-                v[r][c] -= dW.get(r,c) * learningrate;
+                v[i + c] -= dW.v[di + c] * learningrate;
             }
         }
     }
@@ -694,9 +971,10 @@ public class Tensor2D
         
         for (int r = 0; r < rows(); r++)
         {
-            if (v[r][c] > high)
+            double val = v[offset + r * stride + c];
+            if (val > high)
             {
-                high = v[r][c];
+                high = val;
                 index = r;
             }
         }
@@ -713,9 +991,10 @@ public class Tensor2D
     {
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
             for (int c = 0; c < columns(); c++)
             {
-                v[r][c] /= cons;
+                v[i + c] /= cons;
             }
         }
     }
@@ -729,9 +1008,10 @@ public class Tensor2D
     {
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
             for (int c = 0; c < columns(); c++)
             {
-                v[r][c] *= cons;
+                v[i + c] *= cons;
             }
         }
     }
@@ -745,9 +1025,11 @@ public class Tensor2D
     {
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
+            int mi = m.index(r, 0);
             for (int c = 0; c < columns(); c++)
             {
-                v[r][c] -= m.v[r][c];
+                v[i + c] -= m.v[mi + c];
             }
         }
     }
@@ -769,7 +1051,7 @@ public class Tensor2D
         //Copy values from the 1D-tensor to a column in the 2D-tensor
         for (int r = 0; r < rows(); r++)
         {
-            v[r][c] = x.v[r];
+            v[offset + r * stride + c] = x.v[r];
         }
     }
     
@@ -782,13 +1064,26 @@ public class Tensor2D
     {
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
             for (int c = 0; c < columns(); c++)
             {
-                v[r][c] = Math.max(v[r][c], max_val);
+                v[i + c] = Math.max(v[i + c], max_val);
             }
         }
     }
     
+    /**
+     * Sets all values in a row to a constant.
+     * 
+     * @param r The row
+     * @param val The value
+     */
+    public void fill_row(int r, double val)
+    {
+        int i = offset + r * stride;
+        Arrays.fill(v, i, i + columns(), val);
+    }
+    
     /**
      * Adds a scaled 1D-tensor to a row in this 2D-tensor.
      * 
@@ -798,9 +1093,10 @@ public class Tensor2D
      */
     public void addToRow(Tensor1D rv, int r, double scale)
     {
+        int i = offset + r * stride;
         for (int c = 0; c < rv.size(); c++)
         {
-            v[r][c] += rv.get(c) * scale;
+            v[i + c] += rv.v[c] * scale;
         }
     }
     
@@ -814,13 +1110,15 @@ public class Tensor2D
     {
         for (int r = 0; r < rows(); r++)
         {
+            int i = offset + r * stride;
+            int si = scores.index(r, 0);
             for (int c = 0; c < columns(); c++)
             {
                 //Check if activation is <= 0
-                if (scores.get(r, c) <= 0)
+                if (scores.v[si + c] <= 0)
                 {
                     //Switch off
-                    v[r][c] = 0;
+                    v[i + c] = 0;
                 }
             }
         }
@@ -842,16 +1140,12 @@ public class Tensor2D
             throw new ArithmeticException("Invalid size of sub 2D-tensor");
         }
         
-        double[][] v = new double[rows][columns];
+        Tensor2D red = new Tensor2D(rows, columns);
         for (int r = 0; r < rows; r++)
         {
-            for (int c = 0; c < columns; c++)
-            {
-                v[r][c] = m.v[r][c];
-            }
+            System.arraycopy(m.v, m.index(r, 0), red.v, r * columns, columns);
         }
         
-        Tensor2D red = new Tensor2D(v);
         return red;
     }
     
@@ -862,12 +1156,12 @@ public class Tensor2D
      */
     public Tensor2D copy()
     {
-        double[][] nv = new double[rows()][columns()];
+        Tensor2D nt = new Tensor2D(rows(), columns());
         for (int r = 0; r < rows(); r++)
         {
-            System.arraycopy(v[r], 0, nv[r], 0, columns());
+            System.arraycopy(v, offset + r * stride, nt.v, r * columns(), columns());
         }
-        return new Tensor2D(nv);
+        return nt;
     }
     
     @Override
@@ -879,7 +1173,7 @@ public class Tensor2D
             str += "[";
             for (int c = 0; c < columns(); c++)
             {
-                str += df.format(v[r][c]);
+                str += df.format(get(r, c));
                 if (c < columns() - 1)
                 {
                     str += ", ";
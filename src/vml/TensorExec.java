@@ -0,0 +1,166 @@
+package vml;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Execution context for parallel tensor operations and other parallel loops in the library.
+ * Work is executed in a dedicated fork/join pool with a bounded number of threads, instead of
+ * the common pool. Loops with too little work to pay for the fork/join overhead are executed
+ * sequentially, as are loops started from threads in other fork/join pools so nested parallel
+ * code does not use more threads than the pool has.
+ *
+ * The number of threads is read from the system property vml.threads (default is the number
+ * of available processors), and the minimum amount of work for parallel execution from the
+ * system property vml.parallel_threshold. Both can also be changed from code.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class TensorExec
+{
+    //Number of threads in the pool
+    private static int threads = Math.max(1, Integer.getInteger("vml.threads", Runtime.getRuntime().availableProcessors()));
+    //Minimum amount of work (roughly the number of values processed) for parallel execution
+    private static long threshold = Long.getLong("vml.parallel_threshold", 32768);
+    //The pool, created when first needed
+    private static volatile ForkJoinPool pool;
+
+    /**
+     * Sets the number of threads used for parallel execution. Use 1 to execute all
+     * operations sequentially. A new pool is created for the next parallel loop. The old
+     * pool is not shut down, since loops in other threads can still be running in it, and
+     * its threads exit by themselves when they have been idle for a while.
+     *
+     * @param n Number of threads
+     */
+    public static synchronized void setThreads(int n)
+    {
+        threads = Math.max(1, n);
+        pool = null;
+    }
+
+    /**
+     * Returns the number of threads used for parallel execution.
+     *
+     * @return Number of threads
+     */
+    public static int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Sets the minimum amount of work for an operation to be executed in parallel.
+     *
+     * @param work Minimum amount of work
+     */
+    public static void setThreshold(long work)
+    {
+        threshold = work;
+    }
+
+    /**
+     * Returns the pool, creating it if needed.
+     *
+     * @return The pool
+     */
+    private static synchronized ForkJoinPool pool()
+    {
+        if (pool == null)
+        {
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    /**
+     * Executes the body for each index from 0 to n-1, in parallel if the work is large
+     * enough. The order in which indexes are executed is not defined.
+     *
+     * @param n Number of indexes
+     * @param work Amount of work in the loop (roughly the number of values processed)
+     * @param body The loop body
+     */
+    public static void for_range(int n, long work, IntConsumer body)
+    {
+        if (n < 2 || threads < 2 || work < threshold || in_other_pool())
+        {
+            for (int i = 0; i < n; i++)
+            {
+                body.accept(i);
+            }
+            return;
+        }
+
+        ForkJoinPool p = pool();
+        RangeTask task = new RangeTask(0, n, Math.max(1, n / (threads * 4)), body);
+        if (ForkJoinTask.getPool() == p)
+        {
+            //Already in the pool (nested loop), so fork into the same threads
+            task.invoke();
+        }
+        else
+        {
+            p.invoke(task);
+        }
+    }
+
+    /**
+     * Checks if the current thread is a worker in another fork/join pool.
+     *
+     * @return True if in another pool
+     */
+    private static boolean in_other_pool()
+    {
+        Thread t = Thread.currentThread();
+        return t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)t).getPool() != pool;
+    }
+
+    /**
+     * Task that splits a range of indexes in halves until the range is small enough,
+     * and then executes the loop body for the range.
+     */
+    private static class RangeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final IntConsumer body;
+
+        /**
+         * Creates a new task.
+         *
+         * @param start First index
+         * @param end End index (exclusive)
+         * @param grain Maximum size of a range that is not split
+         * @param body The loop body
+         */
+        RangeTask(int start, int end, int grain, IntConsumer body)
+        {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (end - start <= grain)
+            {
+                for (int i = start; i < end; i++)
+                {
+                    body.accept(i);
+                }
+                return;
+            }
+
+            int mid = (start + end) >>> 1;
+            invokeAll(new RangeTask(start, mid, grain, body), new RangeTask(mid, end, grain, body));
+        }
+    }
+}
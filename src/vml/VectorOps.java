@@ -0,0 +1,380 @@
+package vml;
+
+/**
+ * Inner loops shared by the tensor operations. Reductions (dot products, sums and distances)
+ * are unrolled into four independent partial sums, which breaks the dependency between
+ * consecutive additions and lets the JIT compiler keep several multiply-adds in flight and
+ * use SIMD instructions for the loads and arithmetic.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class VectorOps
+{
+    //Number of values between checks against the limit in bounded distances
+    private static final int CHECK_INTERVAL = 64;
+    
+    /**
+     * Calculates the dot product of two value ranges.
+     *
+     * @param a First values array
+     * @param ao Index of the first value in the first array
+     * @param b Second values array
+     * @param bo Index of the first value in the second array
+     * @param n Number of values
+     * @return Dot product
+     */
+    static double dot(double[] a, int ao, double[] b, int bo, int n)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= n - 4; i += 4)
+        {
+            s0 += a[ao + i] * b[bo + i];
+            s1 += a[ao + i + 1] * b[bo + i + 1];
+            s2 += a[ao + i + 2] * b[bo + i + 2];
+            s3 += a[ao + i + 3] * b[bo + i + 3];
+        }
+        for (; i < n; i++)
+        {
+            s0 += a[ao + i] * b[bo + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the sum of a value range.
+     *
+     * @param a Values array
+     * @param ao Index of the first value
+     * @param n Number of values
+     * @return The sum
+     */
+    static double sum(double[] a, int ao, int n)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= n - 4; i += 4)
+        {
+            s0 += a[ao + i];
+            s1 += a[ao + i + 1];
+            s2 += a[ao + i + 2];
+            s3 += a[ao + i + 3];
+        }
+        for (; i < n; i++)
+        {
+            s0 += a[ao + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the squared L2 distance between two arrays of the same length.
+     *
+     * @param a First values array
+     * @param b Second values array
+     * @return Squared L2 distance
+     */
+    static double sq_dist(double[] a, double[] b)
+    {
+        return sq_dist(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Calculates the squared L2 distance between two value ranges.
+     *
+     * @param a First values array
+     * @param ao Index of the first value in the first array
+     * @param b Second values array
+     * @param bo Index of the first value in the second array
+     * @param n Number of values
+     * @return Squared L2 distance
+     */
+    static double sq_dist(double[] a, int ao, double[] b, int bo, int n)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= n - 4; i += 4)
+        {
+            double d0 = a[ao + i] - b[bo + i];
+            double d1 = a[ao + i + 1] - b[bo + i + 1];
+            double d2 = a[ao + i + 2] - b[bo + i + 2];
+            double d3 = a[ao + i + 3] - b[bo + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < n; i++)
+        {
+            double d = a[ao + i] - b[bo + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the squared L2 distance between two value ranges, but stops as soon as the
+     * partial sum is larger than a limit. Values are summed in the same order as in 
+     * sq_dist, so a distance that is not larger than the limit is exactly the same.
+     *
+     * @param a First values array
+     * @param ao Index of the first value in the first array
+     * @param b Second values array
+     * @param bo Index of the first value in the second array
+     * @param n Number of values
+     * @param limit Largest distance of interest
+     * @return Squared L2 distance, or a partial sum larger than the limit
+     */
+    static double sq_dist(double[] a, int ao, double[] b, int bo, int n, double limit)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int stop = CHECK_INTERVAL; stop < n; stop += CHECK_INTERVAL)
+        {
+            for (; i < stop; i += 4)
+            {
+                double d0 = a[ao + i] - b[bo + i];
+                double d1 = a[ao + i + 1] - b[bo + i + 1];
+                double d2 = a[ao + i + 2] - b[bo + i + 2];
+                double d3 = a[ao + i + 3] - b[bo + i + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            double s = (s0 + s1) + (s2 + s3);
+            if (s > limit) return s;
+        }
+        for (; i <= n - 4; i += 4)
+        {
+            double d0 = a[ao + i] - b[bo + i];
+            double d1 = a[ao + i + 1] - b[bo + i + 1];
+            double d2 = a[ao + i + 2] - b[bo + i + 2];
+            double d3 = a[ao + i + 3] - b[bo + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < n; i++)
+        {
+            double d = a[ao + i] - b[bo + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the L1 distance between two arrays of the same length.
+     *
+     * @param a First values array
+     * @param b Second values array
+     * @return L1 distance
+     */
+    static double abs_dist(double[] a, double[] b)
+    {
+        return abs_dist(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Calculates the L1 distance between two value ranges.
+     *
+     * @param a First values array
+     * @param ao Index of the first value in the first array
+     * @param b Second values array
+     * @param bo Index of the first value in the second array
+     * @param n Number of values
+     * @return L1 distance
+     */
+    static double abs_dist(double[] a, int ao, double[] b, int bo, int n)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= n - 4; i += 4)
+        {
+            s0 += Math.abs(a[ao + i] - b[bo + i]);
+            s1 += Math.abs(a[ao + i + 1] - b[bo + i + 1]);
+            s2 += Math.abs(a[ao + i + 2] - b[bo + i + 2]);
+            s3 += Math.abs(a[ao + i + 3] - b[bo + i + 3]);
+        }
+        for (; i < n; i++)
+        {
+            s0 += Math.abs(a[ao + i] - b[bo + i]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the L1 distance between two value ranges, but stops as soon as the partial
+     * sum is larger than a limit. Values are summed in the same order as in abs_dist, so a
+     * distance that is not larger than the limit is exactly the same.
+     *
+     * @param a First values array
+     * @param ao Index of the first value in the first array
+     * @param b Second values array
+     * @param bo Index of the first value in the second array
+     * @param n Number of values
+     * @param limit Largest distance of interest
+     * @return L1 distance, or a partial sum larger than the limit
+     */
+    static double abs_dist(double[] a, int ao, double[] b, int bo, int n, double limit)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int stop = CHECK_INTERVAL; stop < n; stop += CHECK_INTERVAL)
+        {
+            for (; i < stop; i += 4)
+            {
+                s0 += Math.abs(a[ao + i] - b[bo + i]);
+                s1 += Math.abs(a[ao + i + 1] - b[bo + i + 1]);
+                s2 += Math.abs(a[ao + i + 2] - b[bo + i + 2]);
+                s3 += Math.abs(a[ao + i + 3] - b[bo + i + 3]);
+            }
+            double s = (s0 + s1) + (s2 + s3);
+            if (s > limit) return s;
+        }
+        for (; i <= n - 4; i += 4)
+        {
+            s0 += Math.abs(a[ao + i] - b[bo + i]);
+            s1 += Math.abs(a[ao + i + 1] - b[bo + i + 1]);
+            s2 += Math.abs(a[ao + i + 2] - b[bo + i + 2]);
+            s3 += Math.abs(a[ao + i + 3] - b[bo + i + 3]);
+        }
+        for (; i < n; i++)
+        {
+            s0 += Math.abs(a[ao + i] - b[bo + i]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the squared L2 distance between a query and an instance, where the query
+     * values are stored in a scan order: query value i is compared with instance value 
+     * order[i]. The first p values in the scan order are read from a compact copy of the
+     * instance, and the rest are read from the instance values. Stops as soon as the
+     * partial sum is larger than a limit. Values are summed in the same order as in the
+     * bounded sq_dist for an instance copied in the scan order, so a distance that is not
+     * larger than the limit is exactly the same.
+     *
+     * @param q Query values, in the scan order
+     * @param pre Values array with the first p values of the instance in the scan order
+     * @param po Index of the first value in the prefix array
+     * @param p Number of values in the prefix (a multiple of four)
+     * @param b Instance values
+     * @param order Index in the instance values for each value in the scan order
+     * @param limit Largest distance of interest
+     * @return Squared L2 distance, or a partial sum larger than the limit
+     */
+    static double sq_dist(double[] q, double[] pre, int po, int p, double[] b, int[] order, double limit)
+    {
+        int n = order.length;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int stop = Math.min(CHECK_INTERVAL, p); i < p; stop = Math.min(stop + CHECK_INTERVAL, p))
+        {
+            for (; i < stop; i += 4)
+            {
+                double d0 = q[i] - pre[po + i];
+                double d1 = q[i + 1] - pre[po + i + 1];
+                double d2 = q[i + 2] - pre[po + i + 2];
+                double d3 = q[i + 3] - pre[po + i + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            double s = (s0 + s1) + (s2 + s3);
+            if (s > limit) return s;
+        }
+        for (int stop = p + CHECK_INTERVAL; stop < n; stop += CHECK_INTERVAL)
+        {
+            for (; i < stop; i += 4)
+            {
+                double d0 = q[i] - b[order[i]];
+                double d1 = q[i + 1] - b[order[i + 1]];
+                double d2 = q[i + 2] - b[order[i + 2]];
+                double d3 = q[i + 3] - b[order[i + 3]];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            double s = (s0 + s1) + (s2 + s3);
+            if (s > limit) return s;
+        }
+        for (; i <= n - 4; i += 4)
+        {
+            double d0 = q[i] - b[order[i]];
+            double d1 = q[i + 1] - b[order[i + 1]];
+            double d2 = q[i + 2] - b[order[i + 2]];
+            double d3 = q[i + 3] - b[order[i + 3]];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < n; i++)
+        {
+            double d = q[i] - b[order[i]];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Calculates the L1 distance between a query and an instance, where the query values
+     * are stored in a scan order, in the same way as the scan order sq_dist. Stops as soon
+     * as the partial sum is larger than a limit.
+     *
+     * @param q Query values, in the scan order
+     * @param pre Values array with the first p values of the instance in the scan order
+     * @param po Index of the first value in the prefix array
+     * @param p Number of values in the prefix (a multiple of four)
+     * @param b Instance values
+     * @param order Index in the instance values for each value in the scan order
+     * @param limit Largest distance of interest
+     * @return L1 distance, or a partial sum larger than the limit
+     */
+    static double abs_dist(double[] q, double[] pre, int po, int p, double[] b, int[] order, double limit)
+    {
+        int n = order.length;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int stop = Math.min(CHECK_INTERVAL, p); i < p; stop = Math.min(stop + CHECK_INTERVAL, p))
+        {
+            for (; i < stop; i += 4)
+            {
+                s0 += Math.abs(q[i] - pre[po + i]);
+                s1 += Math.abs(q[i + 1] - pre[po + i + 1]);
+                s2 += Math.abs(q[i + 2] - pre[po + i + 2]);
+                s3 += Math.abs(q[i + 3] - pre[po + i + 3]);
+            }
+            double s = (s0 + s1) + (s2 + s3);
+            if (s > limit) return s;
+        }
+        for (int stop = p + CHECK_INTERVAL; stop < n; stop += CHECK_INTERVAL)
+        {
+            for (; i < stop; i += 4)
+            {
+                s0 += Math.abs(q[i] - b[order[i]]);
+                s1 += Math.abs(q[i + 1] - b[order[i + 1]]);
+                s2 += Math.abs(q[i + 2] - b[order[i + 2]]);
+                s3 += Math.abs(q[i + 3] - b[order[i + 3]]);
+            }
+            double s = (s0 + s1) + (s2 + s3);
+            if (s > limit) return s;
+        }
+        for (; i <= n - 4; i += 4)
+        {
+            s0 += Math.abs(q[i] - b[order[i]]);
+            s1 += Math.abs(q[i + 1] - b[order[i + 1]]);
+            s2 += Math.abs(q[i + 2] - b[order[i + 2]]);
+            s3 += Math.abs(q[i + 3] - b[order[i + 3]]);
+        }
+        for (; i < n; i++)
+        {
+            s0 += Math.abs(q[i] - b[order[i]]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
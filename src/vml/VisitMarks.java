@@ -0,0 +1,45 @@
+package vml;
+
+import java.util.Arrays;
+
+/**
+ * Marks for the training instances visited in a search. Instead of clearing the marks
+ * for each search, a new mark value is used, so a search does not need to touch all
+ * training instances to reset them.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class VisitMarks
+{
+    //Mark value for each training instance
+    final int[] marks;
+    //Mark value of the current search
+    private int mark = 0;
+
+    /**
+     * Creates new marks.
+     *
+     * @param n Number of training instances
+     */
+    VisitMarks(int n)
+    {
+        marks = new int[n];
+    }
+
+    /**
+     * Starts a new search. All instances are unvisited for the returned mark value.
+     *
+     * @return Mark value for the new search
+     */
+    int next()
+    {
+        mark++;
+        if (mark == 0)
+        {
+            //The mark value has wrapped around, so old marks must be cleared
+            Arrays.fill(marks, 0);
+            mark = 1;
+        }
+        return mark;
+    }
+}
@@ -0,0 +1,261 @@
+package vml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+/**
+ * Neighbor search by comparing with all training instances, and test datasets, for the
+ * tests of the neighbor search indexes.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+class BruteForce
+{
+    //Allowed relative difference between distances
+    private static final double EPS = 1e-9;
+
+    /**
+     * Calculates the distance between two instances with a plain loop.
+     *
+     * @param a First instance
+     * @param b Second instance
+     * @param measure Distance measure (KNNSettings.L1 or KNNSettings.L2, squared)
+     * @return Distance
+     */
+    static double dist(double[] a, double[] b, int measure)
+    {
+        double d = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            double diff = a[i] - b[i];
+            d += measure == KNNSettings.L1 ? Math.abs(diff) : diff * diff;
+        }
+        return d;
+    }
+
+    /**
+     * Returns the distances to the K nearest training instances, in increasing order.
+     *
+     * @param data Training dataset
+     * @param q Query attributes
+     * @param measure Distance measure
+     * @param k Number of neighbors
+     * @return Distances
+     */
+    static double[] nearest(Dataset data, double[] q, int measure, int k)
+    {
+        double[] d = new double[data.size()];
+        for (int i = 0; i < d.length; i++)
+        {
+            d[i] = dist(q, data.get(i).x.v, measure);
+        }
+        Arrays.sort(d);
+        return Arrays.copyOf(d, Math.min(k, d.length));
+    }
+
+    /**
+     * Checks the neighbors found by a search. Each neighbor must be a distinct training
+     * instance with the correct distance, and the distances must be the K smallest.
+     *
+     * @param data Training dataset
+     * @param q Query attributes
+     * @param measure Distance measure
+     * @param heap Neighbors found by the search
+     */
+    static void assert_nearest(Dataset data, double[] q, int measure, NeighborHeap heap)
+    {
+        double[] expected = nearest(data, q, measure, heap.capacity());
+        assertEquals(expected.length, heap.size());
+        double[] found = found(data, q, measure, heap);
+        for (int j = 0; j < expected.length; j++)
+        {
+            assertEquals(expected[j], found[j], EPS * (1 + expected[j]));
+        }
+    }
+
+    /**
+     * Counts the K nearest neighbors found by a search. Neighbors at the same distance
+     * as the K:th nearest neighbor are all counted as nearest neighbors.
+     *
+     * @param data Training dataset
+     * @param q Query attributes
+     * @param measure Distance measure
+     * @param heap Neighbors found by the search
+     * @return Number of nearest neighbors found
+     */
+    static int recall(Dataset data, double[] q, int measure, NeighborHeap heap)
+    {
+        double[] expected = nearest(data, q, measure, heap.capacity());
+        double limit = expected[expected.length - 1];
+        int cnt = 0;
+        for (double d : found(data, q, measure, heap))
+        {
+            if (d <= limit + EPS * (1 + limit)) cnt++;
+        }
+        return cnt;
+    }
+
+    /**
+     * Checks that the neighbors are distinct training instances at the stated distances,
+     * and returns the distances in increasing order.
+     */
+    private static double[] found(Dataset data, double[] q, int measure, NeighborHeap heap)
+    {
+        double[] found = new double[heap.size()];
+        boolean[] seen = new boolean[data.size()];
+        for (int j = 0; j < heap.size(); j++)
+        {
+            int i = heap.index(j);
+            assertFalse("Neighbor found twice", seen[i]);
+            seen[i] = true;
+            double d = dist(q, data.get(i).x.v, measure);
+            assertEquals(d, heap.dist(j), EPS * (1 + d));
+            found[j] = d;
+        }
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Checks that an exact index finds the K nearest neighbors, for queries that are
+     * training instances and for other queries, and for several K.
+     *
+     * @param index The index
+     * @param data Training dataset
+     * @param measure Distance measure
+     */
+    static void assert_exact(NeighborIndex index, Dataset data, int measure)
+    {
+        for (int k : new int[] {1, 5, 20})
+        {
+            for (double[] q : queries(data, 40, 11))
+            {
+                NeighborHeap heap = new NeighborHeap(k);
+                index.search(q, heap);
+                assert_nearest(data, q, measure, heap);
+            }
+        }
+    }
+
+    /**
+     * Returns the share of the K nearest neighbors found by an index, for queries that
+     * are training instances and for other queries.
+     *
+     * @param index The index
+     * @param data Training dataset
+     * @param measure Distance measure
+     * @param k Number of neighbors
+     * @return Recall
+     */
+    static double recall(NeighborIndex index, Dataset data, int measure, int k)
+    {
+        double[][] queries = queries(data, 100, 12);
+        int cnt = 0;
+        for (double[] q : queries)
+        {
+            NeighborHeap heap = new NeighborHeap(k);
+            index.search(q, heap);
+            cnt += recall(data, q, measure, heap);
+        }
+        return (double)cnt / (queries.length * Math.min(k, data.size()));
+    }
+
+    /**
+     * Creates queries where every second query is a training instance and every other
+     * query has normally distributed attributes.
+     *
+     * @param data Training dataset
+     * @param n Number of queries
+     * @param seed Randomizer seed
+     * @return Query attributes
+     */
+    static double[][] queries(Dataset data, int n, long seed)
+    {
+        Random rnd = new Random(seed);
+        double[][] q = new double[n][];
+        for (int i = 0; i < n; i++)
+        {
+            if (i % 2 == 0)
+            {
+                q[i] = data.get(rnd.nextInt(data.size())).x.v.clone();
+            }
+            else
+            {
+                q[i] = new double[data.noInputs()];
+                for (int a = 0; a < q[i].length; a++)
+                {
+                    q[i][a] = rnd.nextGaussian() * 1.5;
+                }
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Creates a dataset with normally distributed attributes and random labels.
+     *
+     * @param n Number of instances
+     * @param dim Number of attributes
+     * @param classes Number of labels
+     * @param seed Randomizer seed
+     * @return The dataset
+     */
+    static Dataset random(int n, int dim, int classes, long seed)
+    {
+        Random rnd = new Random(seed);
+        Dataset data = dataset(classes);
+        for (int i = 0; i < n; i++)
+        {
+            double[] v = new double[dim];
+            for (int a = 0; a < dim; a++)
+            {
+                v[a] = rnd.nextGaussian();
+            }
+            data.add(new Instance(v, rnd.nextInt(classes)));
+        }
+        return data;
+    }
+
+    /**
+     * Creates a dataset where attributes only have a few integer values, so there are
+     * duplicate instances and many neighbors at the same distance.
+     *
+     * @param n Number of instances
+     * @param dim Number of attributes
+     * @param classes Number of labels
+     * @param seed Randomizer seed
+     * @return The dataset
+     */
+    static Dataset grid(int n, int dim, int classes, long seed)
+    {
+        Random rnd = new Random(seed);
+        Dataset data = dataset(classes);
+        for (int i = 0; i < n; i++)
+        {
+            double[] v = new double[dim];
+            for (int a = 0; a < dim; a++)
+            {
+                v[a] = rnd.nextInt(4);
+            }
+            data.add(new Instance(v, rnd.nextInt(classes)));
+        }
+        return data;
+    }
+
+    /**
+     * Creates an empty dataset with labels.
+     */
+    private static Dataset dataset(int classes)
+    {
+        Dataset data = new Dataset("test");
+        HashMap<Integer, String> cats = new HashMap<>();
+        for (int c = 0; c < classes; c++)
+        {
+            cats.put(c, "c" + c);
+        }
+        data.setLabelMapping(cats);
+        return data;
+    }
+}
@@ -0,0 +1,350 @@
+package vml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the CART split search, compared with a tree built by trying every instance
+ * value of every attribute as split value and counting the labels on each side.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class CARTTest
+{
+    //Datasets with continuous attributes
+    private static final String[] FILES = {"data/iris.csv", "data/diabetes.csv", "data/glass.csv", "data/spiral.csv"};
+    //Tree depths and minimum sizes for a split
+    private static final int[][] SETTINGS = {{5, 10}, {9, 1}};
+
+    /**
+     * Checks trees built on datasets with continuous attributes, and on a dataset with
+     * many equal attribute values and duplicate instances.
+     */
+    @Test
+    public void presorted_tree_matches_reference()
+    {
+        for (Dataset data : datasets())
+        {
+            for (int[] s : SETTINGS)
+            {
+                assert_reference(data, tree(data, s[0], s[1], 0), null, s[0], s[1]);
+            }
+        }
+    }
+
+    /**
+     * Checks binned trees where each attribute value has its own bin, which must be the
+     * same as trees without bins, and binned trees where the split values are limited to
+     * the lower edges of the bins.
+     */
+    @Test
+    public void binned_tree_matches_reference()
+    {
+        for (Dataset data : datasets())
+        {
+            for (int[] s : SETTINGS)
+            {
+                if (data.size() <= 256)
+                {
+                    assert_reference(data, tree(data, s[0], s[1], 256), null, s[0], s[1]);
+                }
+                assert_reference(data, tree(data, s[0], s[1], 16), edges(data, 16), s[0], s[1]);
+            }
+        }
+    }
+
+    /**
+     * Checks that forests where each attribute value has its own bin are the same as
+     * forests without bins. The bins are created once for the forest and used by trees
+     * trained on samples of the dataset.
+     */
+    @Test
+    public void binned_forest_matches_forest()
+    {
+        for (Dataset data : datasets())
+        {
+            if (data.size() > 256) continue;
+            int[] expected = predict(forest(data, 0), data);
+            assertArrayEquals(data.getName(), expected, predict(forest(data, 256), data));
+        }
+    }
+
+    /**
+     * Checks the deprecated node methods, which walk the tree arrays of a trained tree or
+     * the branches of a split created by get_split.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecated_nodes_match_tree()
+    {
+        for (Dataset data : datasets())
+        {
+            CART tree = tree(data, 5, 10, 0);
+            Ref ref = split(data.data, data.noCategories(), classes(data), null, 1, 10, 1);
+            CART.Node split = tree.get_split(data);
+            assertEquals(data.getName(), ref.a_index, split.a_index);
+            assertEquals(data.getName(), ref.val, split.val, 0);
+            for (int i = 0; i < data.size(); i++)
+            {
+                Instance inst = data.get(i);
+                CART.Node leaf = tree.classify(tree.root(), inst);
+                assertEquals(tree.classify(i), leaf.label);
+                assertArrayEquals(tree.classifyProbability(i).v, leaf.getClassProbabilities().v, 1e-12);
+
+                Ref r = inst.x.v[ref.a_index] < ref.val ? ref.left : ref.right;
+                assertEquals(argmax(r.labels), tree.classify(split, inst).label);
+            }
+        }
+    }
+
+    /**
+     * Reference tree node.
+     */
+    private static class Ref
+    {
+        int a_index = -1;
+        double val;
+        Ref left;
+        Ref right;
+        double[] labels;
+    }
+
+    /**
+     * Compares predicted labels and class probabilities for all instances with the
+     * reference tree.
+     */
+    private static void assert_reference(Dataset data, CART tree, double[][] cand, int max_depth, int min_size)
+    {
+        Ref root = split(data.data, data.noCategories(), classes(data), cand, max_depth, min_size, 1);
+        for (int i = 0; i < data.size(); i++)
+        {
+            Ref r = root;
+            while (r.a_index >= 0)
+            {
+                r = data.get(i).x.v[r.a_index] < r.val ? r.left : r.right;
+            }
+            double[] p = r.labels.clone();
+            double sum = 0;
+            for (double c : p)
+            {
+                sum += c;
+            }
+            for (int c = 0; c < p.length; c++)
+            {
+                p[c] /= sum;
+            }
+            String msg = data.getName() + ", max depth " + max_depth + ", min size " + min_size + ", instance " + i;
+            assertEquals(msg, argmax(r.labels), tree.classify(i));
+            assertArrayEquals(msg, p, tree.classifyProbability(i).v, 0);
+        }
+    }
+
+    /**
+     * Builds a reference node. If the node is not at max depth, the branches are split
+     * unless they have at most min_size instances.
+     *
+     * @param cand Lower edges of the bins for each attribute, where the split value for an instance
+     * is the lower edge of its bin, or null to split at the instance values
+     */
+    private static Ref split(List<Instance> inst, int noCategories, TreeSet<Integer> classes, double[][] cand, int max_depth, int min_size, int depth)
+    {
+        Ref node = new Ref();
+        double b_score = Double.MAX_VALUE;
+        List<Instance> b_left = null;
+        List<Instance> b_right = null;
+        for (int a = 0; a < inst.get(0).x.v.length; a++)
+        {
+            for (Instance i : inst)
+            {
+                double val = cand == null ? i.x.v[a] : lower_edge(cand[a], i.x.v[a]);
+                List<Instance> left = new ArrayList<>();
+                List<Instance> right = new ArrayList<>();
+                for (Instance j : inst)
+                {
+                    if (j.x.v[a] < val) left.add(j);
+                    else right.add(j);
+                }
+                double gini = gini(left, inst.size(), classes) + gini(right, inst.size(), classes);
+                if (gini < b_score)
+                {
+                    b_score = gini;
+                    node.a_index = a;
+                    node.val = val;
+                    b_left = left;
+                    b_right = right;
+                }
+            }
+        }
+
+        boolean leaf = depth >= max_depth;
+        node.left = leaf || b_left.size() <= min_size ? leaf(b_left, noCategories) : split(b_left, noCategories, classes, cand, max_depth, min_size, depth + 1);
+        node.right = leaf || b_right.size() <= min_size ? leaf(b_right, noCategories) : split(b_right, noCategories, classes, cand, max_depth, min_size, depth + 1);
+        return node;
+    }
+
+    /**
+     * Calculates the Gini index of one branch, weighted by the share of instances in it.
+     */
+    private static double gini(List<Instance> inst, int n, TreeSet<Integer> classes)
+    {
+        double size = inst.size();
+        if (size == 0) return 0;
+        double score = 0;
+        for (int c : classes)
+        {
+            double cnt = 0;
+            for (Instance i : inst)
+            {
+                if (i.label == c) cnt++;
+            }
+            double p = cnt / size;
+            score += p * p;
+        }
+        return (1.0 - score) * (size / n);
+    }
+
+    private static Ref leaf(List<Instance> inst, int noCategories)
+    {
+        Ref node = new Ref();
+        node.labels = new double[noCategories];
+        for (Instance i : inst)
+        {
+            node.labels[i.label]++;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the lower edges of the bins for each attribute. If an attribute has more
+     * distinct values than bins, the edges are the values at evenly spaced quantiles.
+     */
+    private static double[][] edges(Dataset data, int nbins)
+    {
+        int n = data.size();
+        double[][] edges = new double[data.noInputs()][];
+        for (int a = 0; a < edges.length; a++)
+        {
+            double[] sorted = new double[n];
+            for (int i = 0; i < n; i++)
+            {
+                sorted[i] = data.get(i).x.v[a];
+            }
+            Arrays.sort(sorted);
+            TreeSet<Double> e = new TreeSet<>();
+            for (double v : sorted)
+            {
+                e.add(v);
+            }
+            if (e.size() > nbins)
+            {
+                e.clear();
+                for (int b = 0; b < nbins; b++)
+                {
+                    e.add(sorted[b * n / nbins]);
+                }
+            }
+            edges[a] = e.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        return edges;
+    }
+
+    /**
+     * Returns the largest edge not larger than a value.
+     */
+    private static double lower_edge(double[] edges, double v)
+    {
+        int b = Arrays.binarySearch(edges, v);
+        return edges[b >= 0 ? b : -b - 2];
+    }
+
+    private static int argmax(double[] v)
+    {
+        int best = 0;
+        for (int i = 1; i < v.length; i++)
+        {
+            if (v[i] > v[best]) best = i;
+        }
+        return best;
+    }
+
+    private static TreeSet<Integer> classes(Dataset data)
+    {
+        TreeSet<Integer> classes = new TreeSet<>();
+        for (Instance i : data.data)
+        {
+            classes.add(i.label);
+        }
+        return classes;
+    }
+
+    /**
+     * Trains a tree on a dataset and activates it for the same dataset.
+     */
+    private static CART tree(Dataset data, int max_depth, int min_size, int bins)
+    {
+        CARTSettings settings = new CARTSettings();
+        settings.max_depth = max_depth;
+        settings.min_size = min_size;
+        settings.bins = bins;
+        CART tree = new CART(data, null, settings);
+        tree.iterate();
+        tree.activation(data);
+        return tree;
+    }
+
+    /**
+     * Trains a forest on a dataset.
+     */
+    private static RandomForest forest(Dataset data, int bins)
+    {
+        RFSettings settings = new RFSettings();
+        settings.trees = 5;
+        settings.max_depth = 6;
+        settings.min_size = 2;
+        settings.bins = bins;
+        RandomForest forest = new RandomForest(data, null, settings);
+        Logger out = Logger.getConsoleLogger();
+        out.disable();
+        forest.train(out);
+        out.enable();
+        return forest;
+    }
+
+    private static int[] predict(Classifier c, Dataset test)
+    {
+        c.activation(test);
+        int[] pred = new int[test.size()];
+        for (int i = 0; i < pred.length; i++)
+        {
+            pred[i] = c.classify(i);
+        }
+        return pred;
+    }
+
+    private static List<Dataset> datasets()
+    {
+        List<Dataset> sets = new ArrayList<>();
+        for (String file : FILES)
+        {
+            sets.add(read(file));
+        }
+        sets.add(BruteForce.grid(300, 4, 3, 1));
+        return sets;
+    }
+
+    private static Dataset read(String file)
+    {
+        try
+        {
+            return new DataSource().read(file);
+        }
+        catch (Exception ex)
+        {
+            throw new AssertionError("Unable to read " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package vml;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the training data tensors cached by the classifiers.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class ClassifierTest
+{
+    /**
+     * Trains a classifier on the training dataset of each fold, as in cross-validation,
+     * and checks that it is trained the same as a new classifier trained on that fold.
+     * Folds have the same size, so the cached tensors must be replaced when the
+     * training dataset is replaced. Momentum is not used, since the gradients from the
+     * previous training are kept as momentum when a classifier is trained again.
+     */
+    @Test
+    public void cross_validation_uses_each_fold()
+    {
+        Dataset data = read("data/iris.csv");
+        for (int batch_size : new int[] {0, 30})
+        {
+            Linear linear = linear(data, batch_size);
+            NN nn = nn(data, batch_size);
+            for (int f = 0; f < 3; f++)
+            {
+                Dataset train = data.getInverseSubset(f * 15, (f + 1) * 15);
+                linear.data = train;
+                nn.data = train;
+                
+                Linear l = linear(train, batch_size);
+                predict(l, data);
+                predict(linear, data);
+                assertArrayEquals(l.w.v, linear.w.v, 0);
+                assertArrayEquals(l.b.v, linear.b.v, 0);
+                assertArrayEquals(predict(nn(train, batch_size), data), predict(nn, data));
+            }
+        }
+    }
+    
+    /**
+     * Checks that the cached tensors are replaced when the training dataset is modified.
+     */
+    @Test
+    public void modified_dataset_is_used()
+    {
+        Dataset data = read("data/iris.csv");
+        Linear linear = linear(data, 0);
+        predict(linear, data);
+        
+        data.normalizeAttributes(0, 1);
+        Linear l = linear(data, 0);
+        predict(l, data);
+        predict(linear, data);
+        assertArrayEquals(l.w.v, linear.w.v, 0);
+    }
+    
+    /**
+     * Trains a classifier and classifies all instances in a dataset.
+     */
+    private static int[] predict(Classifier c, Dataset test)
+    {
+        Logger out = Logger.getConsoleLogger();
+        out.disable();
+        c.train(out);
+        out.enable();
+        
+        c.activation(test);
+        int[] pred = new int[test.size()];
+        for (int i = 0; i < pred.length; i++)
+        {
+            pred[i] = c.classify(i);
+        }
+        return pred;
+    }
+    
+    private static Linear linear(Dataset data, int batch_size)
+    {
+        LSettings settings = new LSettings();
+        settings.epochs = 20;
+        settings.momentum = 0;
+        settings.batch_size = batch_size;
+        return new Linear(data, null, settings);
+    }
+    
+    private static NN nn(Dataset data, int batch_size)
+    {
+        NNSettings settings = new NNSettings();
+        settings.epochs = 50;
+        settings.momentum = 0;
+        settings.batch_size = batch_size;
+        return new NN(data, null, settings);
+    }
+    
+    private static Dataset read(String file)
+    {
+        try
+        {
+            return new DataSource().read(file);
+        }
+        catch (Exception ex)
+        {
+            throw new AssertionError("Unable to read " + file, ex);
+        }
+    }
+}
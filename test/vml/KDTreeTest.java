@@ -0,0 +1,43 @@
+package vml;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the KD-tree index, compared with brute force search.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class KDTreeTest
+{
+    @Test
+    public void search_matches_brute_force()
+    {
+        Dataset[] sets = {BruteForce.random(500, 3, 3, 1), BruteForce.random(300, 8, 3, 2), BruteForce.grid(400, 3, 3, 3)};
+        for (int measure : new int[] {KNNSettings.L1, KNNSettings.L2})
+        {
+            for (Dataset data : sets)
+            {
+                BruteForce.assert_exact(new KDTree(data, measure), data, measure);
+            }
+        }
+    }
+
+    @Test
+    public void fewer_instances_than_neighbors()
+    {
+        Dataset data = BruteForce.random(3, 2, 2, 4);
+        NeighborHeap heap = new NeighborHeap(5);
+        new KDTree(data, KNNSettings.L2).search(new double[] {0, 0}, heap);
+        BruteForce.assert_nearest(data, new double[] {0, 0}, KNNSettings.L2, heap);
+    }
+
+    @Test
+    public void empty_dataset_has_no_neighbors()
+    {
+        Dataset data = BruteForce.random(0, 2, 2, 5);
+        NeighborHeap heap = new NeighborHeap(3);
+        new KDTree(data, KNNSettings.L2).search(new double[] {0, 0}, heap);
+        assertEquals(0, heap.size());
+    }
+}
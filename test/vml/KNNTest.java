@@ -0,0 +1,156 @@
+package vml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the k-Nearest Neighbor classifier, compared with a brute force vote among the
+ * K nearest training instances.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class KNNTest
+{
+    /**
+     * Checks all exact search methods on datasets with and without equal distances.
+     */
+    @Test
+    public void exact_search_matches_brute_force()
+    {
+        Dataset[][] sets = {
+            {BruteForce.random(700, 6, 3, 1), BruteForce.random(150, 6, 3, 2)},
+            {BruteForce.grid(700, 4, 3, 3), BruteForce.grid(150, 4, 3, 4)}
+        };
+        for (Dataset[] s : sets)
+        {
+            for (int index : new int[] {KNNSettings.LINEAR, KNNSettings.KDTREE, KNNSettings.BALLTREE})
+            {
+                for (int measure : new int[] {KNNSettings.L1, KNNSettings.L2})
+                {
+                    for (int k : new int[] {1, 5})
+                    {
+                        assert_brute_force(s[0], s[1], index, measure, k);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks L2 distances for instances far from the origin, where ||q||^2 + ||x||^2 - 2*q*x
+     * loses all precision to cancellation. Attribute values and distances are exact in
+     * double precision when calculated directly.
+     */
+    @Test
+    public void batched_l2_distances_are_exact()
+    {
+        Dataset train = offset(700, 8, 1);
+        Dataset test = offset(200, 8, 2);
+        for (int k : new int[] {1, 3, 10})
+        {
+            assert_brute_force(train, test, KNNSettings.LINEAR, KNNSettings.L2, k);
+        }
+    }
+
+    /**
+     * Checks that K larger than the training dataset uses all training instances.
+     */
+    @Test
+    public void fewer_instances_than_neighbors()
+    {
+        Dataset train = BruteForce.random(4, 3, 2, 5);
+        Dataset test = BruteForce.random(10, 3, 2, 6);
+        for (int index : new int[] {KNNSettings.LINEAR, KNNSettings.KDTREE, KNNSettings.BALLTREE})
+        {
+            assert_brute_force(train, test, index, KNNSettings.L2, 7);
+        }
+    }
+
+    /**
+     * Classifies the test dataset one instance at a time and all at once, and compares
+     * both with the brute force vote.
+     */
+    private static void assert_brute_force(Dataset train, Dataset test, int index, int measure, int k)
+    {
+        KNNSettings settings = new KNNSettings();
+        settings.K = k;
+        settings.index = index;
+        settings.distance_measure = measure;
+        KNN knn = new KNN(train, null, settings);
+        Logger out = Logger.getConsoleLogger();
+        out.disable();
+        knn.train(out);
+        out.enable();
+        knn.activation(test);
+
+        int[] all = knn.classify_all(test.size());
+        for (int i = 0; i < test.size(); i++)
+        {
+            int expected = vote(train, test.get(i).x.v, measure, k);
+            String msg = "index " + index + ", measure " + measure + ", K " + k + ", instance " + i;
+            assertEquals(msg, expected, knn.classify(i));
+            assertEquals(msg, expected, all[i]);
+        }
+    }
+
+    /**
+     * Selects the label with most occurences among the K nearest training instances, where
+     * training instances at equal distances are ordered by index. If several labels have
+     * the same number of occurences, the label with lowest sum of distances is selected.
+     */
+    private static int vote(Dataset train, double[] q, int measure, int k)
+    {
+        int n = train.size();
+        Integer[] idx = new Integer[n];
+        double[] d = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            idx[i] = i;
+            d[i] = BruteForce.dist(q, train.get(i).x.v, measure);
+        }
+        Arrays.sort(idx, (a, b) -> d[a] != d[b] ? Double.compare(d[a], d[b]) : Integer.compare(a, b));
+
+        int[] cnt = new int[train.noCategories()];
+        double[] sum = new double[train.noCategories()];
+        for (int j = 0; j < Math.min(k, n); j++)
+        {
+            int label = train.get(idx[j]).label;
+            cnt[label]++;
+            sum[label] += d[idx[j]];
+        }
+        int best = 0;
+        for (int c = 1; c < cnt.length; c++)
+        {
+            if (cnt[c] > cnt[best] || (cnt[c] == cnt[best] && sum[c] < sum[best])) best = c;
+        }
+        return best;
+    }
+
+    /**
+     * Creates a dataset where all attributes are 2^26 plus a multiple of 1/64, with random labels.
+     */
+    private static Dataset offset(int n, int dim, long seed)
+    {
+        Random rnd = new Random(seed);
+        Dataset data = new Dataset("offset");
+        HashMap<Integer, String> cats = new HashMap<>();
+        for (int c = 0; c < 3; c++)
+        {
+            cats.put(c, "c" + c);
+        }
+        data.setLabelMapping(cats);
+        for (int i = 0; i < n; i++)
+        {
+            double[] v = new double[dim];
+            for (int a = 0; a < dim; a++)
+            {
+                v[a] = (1 << 26) + rnd.nextInt(64) / 64.0;
+            }
+            data.add(new Instance(v, rnd.nextInt(3)));
+        }
+        return data;
+    }
+}
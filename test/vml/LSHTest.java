@@ -0,0 +1,40 @@
+package vml;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the LSH index, compared with brute force search.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class LSHTest
+{
+    @Test
+    public void search_finds_most_neighbors()
+    {
+        Dataset data = BruteForce.random(2000, 16, 3, 6);
+        for (int measure : new int[] {KNNSettings.L1, KNNSettings.L2})
+        {
+            LSH index = new LSH(data, measure, 20, 4, 4);
+            assertFalse(index.exact());
+            assertTrue(BruteForce.recall(index, data, measure, 10) >= 0.9);
+        }
+    }
+
+    @Test
+    public void duplicate_instances()
+    {
+        Dataset data = BruteForce.grid(1000, 3, 3, 7);
+        assertTrue(BruteForce.recall(new LSH(data, KNNSettings.L2, 20, 4, 4), data, KNNSettings.L2, 10) >= 0.9);
+    }
+
+    @Test
+    public void empty_dataset_has_no_neighbors()
+    {
+        Dataset data = BruteForce.random(0, 4, 2, 5);
+        NeighborHeap heap = new NeighborHeap(3);
+        new LSH(data, KNNSettings.L2, 20, 4, 4).search(new double[4], heap);
+        assertEquals(0, heap.size());
+    }
+}
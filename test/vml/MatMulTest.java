@@ -0,0 +1,223 @@
+package vml;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the blocked matrix products, compared with a plain triple loop.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class MatMulTest
+{
+    //Sizes (m, n, k) of small products, products with partial panels and blocks at the
+    //edges, and products with several blocks along each dimension
+    private static final int[][] SIZES = {{3, 4, 5}, {37, 131, 29}, {70, 530, 300}};
+    //Allowed difference from the triple loop
+    private static final double EPS = 1e-10;
+
+    /**
+     * Checks all combinations of transposed operands and scales of the current result.
+     */
+    @Test
+    public void gemm_matches_naive_product()
+    {
+        Random rnd = new Random(1);
+        for (int[] s : SIZES)
+        {
+            for (boolean ta : new boolean[] {false, true})
+            {
+                for (boolean tb : new boolean[] {false, true})
+                {
+                    for (double beta : new double[] {0, 1, 0.5})
+                    {
+                        Tensor2D a = ta ? random(s[2], s[0], rnd) : random(s[0], s[2], rnd);
+                        Tensor2D b = tb ? random(s[1], s[2], rnd) : random(s[2], s[1], rnd);
+                        Tensor2D c = random(s[0], s[1], rnd);
+                        Tensor2D expected = naive(a, ta, b, tb, c, beta);
+
+                        MatMul.gemm(a, ta, b, tb, c, beta);
+                        assertClose(expected, c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the Tensor2D products that use the blocked products.
+     */
+    @Test
+    public void products_match_naive_product()
+    {
+        Random rnd = new Random(2);
+        for (int[] s : SIZES)
+        {
+            Tensor2D a = random(s[0], s[2], rnd);
+            Tensor2D b = random(s[2], s[1], rnd);
+            Tensor2D at = random(s[2], s[0], rnd);
+            Tensor2D bt = random(s[1], s[2], rnd);
+            Tensor2D zero = Tensor2D.zeros(s[0], s[1]);
+
+            assertClose(naive(a, false, b, false, zero, 0), Tensor2D.mul(a, b));
+            assertClose(naive(at, true, b, false, zero, 0), Tensor2D.transpose_mul(at, b));
+            assertClose(naive(a, false, bt, true, zero, 0), Tensor2D.mul_transpose(a, bt));
+        }
+    }
+
+    /**
+     * Checks the bias and ReLU applied to the blocks of the result.
+     */
+    @Test
+    public void activation_matches_naive_product()
+    {
+        Random rnd = new Random(3);
+        for (int[] s : SIZES)
+        {
+            Tensor2D w = random(s[0], s[2], rnd);
+            Tensor2D x = random(s[2], s[1], rnd);
+            Tensor1D b = Tensor1D.zeros(s[0]);
+            for (int i = 0; i < s[0]; i++)
+            {
+                b.v[i] = rnd.nextDouble() * 2 - 1;
+            }
+            Tensor2D expected = naive(w, false, x, false, Tensor2D.zeros(s[0], s[1]), 0);
+            for (int i = 0; i < s[0]; i++)
+            {
+                for (int j = 0; j < s[1]; j++)
+                {
+                    expected.set(i, j, expected.get(i, j) + b.v[i]);
+                }
+            }
+
+            //Probabilities for each column
+            Tensor2D probs = Tensor2D.activation_softmax(w, x, b, null);
+            for (int j = 0; j < s[1]; j++)
+            {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < s[0]; i++)
+                {
+                    max = Math.max(max, expected.get(i, j));
+                }
+                double sum = 0;
+                for (int i = 0; i < s[0]; i++)
+                {
+                    sum += Math.exp(expected.get(i, j) - max);
+                }
+                for (int i = 0; i < s[0]; i++)
+                {
+                    assertEquals(Math.exp(expected.get(i, j) - max) / sum, probs.get(i, j), EPS);
+                }
+            }
+
+            for (int i = 0; i < s[0]; i++)
+            {
+                for (int j = 0; j < s[1]; j++)
+                {
+                    expected.set(i, j, Math.max(0, expected.get(i, j)));
+                }
+            }
+            assertClose(expected, Tensor2D.activation_relu(w, x, b, null));
+        }
+    }
+
+    /**
+     * Runs products inside parallel loops, so pool workers run loop bodies of other
+     * products while they wait, and changes the number of threads while products run.
+     */
+    @Test
+    public void parallel_products_match_naive_product() throws Exception
+    {
+        int threads = TensorExec.getThreads();
+        TensorExec.setThreads(4);
+        TensorExec.setThreshold(1);
+        try
+        {
+            Random rnd = new Random(4);
+            int n = 8;
+            Tensor2D[] a = new Tensor2D[n];
+            Tensor2D[] b = new Tensor2D[n];
+            Tensor2D[] c = new Tensor2D[n];
+            Tensor2D[] expected = new Tensor2D[n];
+            for (int i = 0; i < n; i++)
+            {
+                a[i] = random(70, 300, rnd);
+                b[i] = random(300, 530, rnd);
+                c[i] = Tensor2D.zeros(70, 530);
+                expected[i] = naive(a[i], false, b[i], false, c[i], 0);
+            }
+
+            //Swap the pool while the products run
+            Thread swap = new Thread(() -> {
+                for (int i = 0; i < 20; i++)
+                {
+                    TensorExec.setThreads(2 + i % 3);
+                }
+            });
+            swap.start();
+            TensorExec.for_range(n, Long.MAX_VALUE, i -> MatMul.gemm(a[i], false, b[i], false, c[i], 0));
+            swap.join();
+
+            for (int i = 0; i < n; i++)
+            {
+                assertClose(expected[i], c[i]);
+            }
+        }
+        finally
+        {
+            TensorExec.setThreads(threads);
+            TensorExec.setThreshold(Long.getLong("vml.parallel_threshold", 32768));
+        }
+    }
+
+    /**
+     * Calculates op(a) * op(b) + beta * c with a triple loop.
+     */
+    private static Tensor2D naive(Tensor2D a, boolean ta, Tensor2D b, boolean tb, Tensor2D c, double beta)
+    {
+        int m = c.rows();
+        int n = c.columns();
+        int k = ta ? a.rows() : a.columns();
+        Tensor2D res = Tensor2D.zeros(m, n);
+        for (int i = 0; i < m; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                double sum = beta == 0 ? 0 : beta * c.get(i, j);
+                for (int p = 0; p < k; p++)
+                {
+                    sum += (ta ? a.get(p, i) : a.get(i, p)) * (tb ? b.get(j, p) : b.get(p, j));
+                }
+                res.set(i, j, sum);
+            }
+        }
+        return res;
+    }
+
+    private static Tensor2D random(int r, int c, Random rnd)
+    {
+        Tensor2D t = Tensor2D.zeros(r, c);
+        for (int i = 0; i < r; i++)
+        {
+            for (int j = 0; j < c; j++)
+            {
+                t.set(i, j, rnd.nextDouble() * 2 - 1);
+            }
+        }
+        return t;
+    }
+
+    private static void assertClose(Tensor2D expected, Tensor2D actual)
+    {
+        assertEquals(expected.rows(), actual.rows());
+        assertEquals(expected.columns(), actual.columns());
+        for (int i = 0; i < expected.rows(); i++)
+        {
+            for (int j = 0; j < expected.columns(); j++)
+            {
+                assertEquals(expected.get(i, j), actual.get(i, j), EPS);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package vml;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the product quantization index, compared with brute force search.
+ *
+ * @author Johan Hagelbäck, Linnaeus University  (johan.hagelback@lnu.se)
+ */
+public class PQTest
+{
+    @Test
+    public void search_finds_most_neighbors()
+    {
+        Dataset data = BruteForce.random(2000, 16, 3, 6);
+        for (int measure : new int[] {KNNSettings.L1, KNNSettings.L2})
+        {
+            PQ index = new PQ(data, measure, 8, 50);
+            assertFalse(index.exact());
+            assertTrue(BruteForce.recall(index, data, measure, 10) >= 0.9);
+        }
+    }
+
+    @Test
+    public void full_shortlist_is_exact()
+    {
+        Dataset[] sets = {BruteForce.random(500, 16, 3, 1), BruteForce.grid(400, 3, 3, 3)};
+        for (int measure : new int[] {KNNSettings.L1, KNNSettings.L2})
+        {
+            for (Dataset data : sets)
+            {
+                BruteForce.assert_exact(new PQ(data, measure, 8, data.size()), data, measure);
+            }
+        }
+    }
+
+    @Test
+    public void empty_dataset_has_no_neighbors()
+    {
+        Dataset data = BruteForce.random(0, 4, 2, 5);
+        NeighborHeap heap = new NeighborHeap(3);
+        new PQ(data, KNNSettings.L2, 8, 50).search(new double[4], heap);
+        assertEquals(0, heap.size());
+    }
+}